@@ -0,0 +1,183 @@
+/**
+ *
+ */
+package src.features;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import src.preprocessing.AnnotatedDocument;
+import src.preprocessing.AnnotationLayer;
+import src.utils.genutils.BoundedMemo;
+import src.utils.genutils.RunMetrics;
+
+/**
+ * Runs a set of feature extractors over annotated texts. By default these are
+ * the extractors registered with FeatureExtractorRegistry, i.e. the feature set
+ * of the corpus runs (GetFeaturesForADir): POS tag, word, traditional, WordNet,
+ * psycholinguistic, parse tree and k-best parse features. The extractors are
+ * loaded once and shared; getFeatures() may be called from several threads at
+ * a time.
+ *
+ * The extractors only read the document, so getFeatures() runs them at the
+ * same time, on a pool shared by all engines, and a document takes as long as
+ * its slowest extractor instead of all of them together. Their features are
+ * merged in the order of the extractor list, whichever finishes first.
+ *
+ * @author svajjala
+ */
+public class FeatureEngine {
+
+	private static ExecutorService sharedPool;
+
+	private final List<FeatureExtractor> extractors;
+	private ExecutorService pool;
+	private RunMetrics metrics;
+
+	/**
+	 * Creates an engine with the registered extractors.
+	 *
+	 * @throws Exception if an extractor cannot be created
+	 */
+	public FeatureEngine() throws Exception {
+		this(FeatureExtractorRegistry.load());
+	}
+
+	/**
+	 * @param extractors : the extractors to run, in the order their features are
+	 *                   merged
+	 */
+	public FeatureEngine(List<FeatureExtractor> extractors) {
+		this.extractors = Collections.unmodifiableList(new ArrayList<FeatureExtractor>(extractors));
+		this.pool = getSharedPool();
+	}
+
+	/**
+	 * @return the pool extractors run on, one thread per core, created on first
+	 *         use.
+	 */
+	private static synchronized ExecutorService getSharedPool() {
+		if (sharedPool == null) {
+			AtomicInteger numThreads = new AtomicInteger();
+			sharedPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+				Thread t = new Thread(r, "extractor-" + numThreads.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return sharedPool;
+	}
+
+	/**
+	 * @param pool : where to run the extractors of a document, or null to run
+	 *             them one after the other in the calling thread
+	 */
+	public void setExecutor(ExecutorService pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * @return the extractors, in the order their features are merged.
+	 */
+	public List<FeatureExtractor> getExtractors() {
+		return extractors;
+	}
+
+	/**
+	 * Makes getFeatures() record how long each extractor takes.
+	 *
+	 * @param metrics : the metrics of the run, or null to switch recording off
+	 */
+	public void setMetrics(RunMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Makes the parse tree features reuse the counts of trees seen before (see
+	 * ParseTreeBasedFeatures.setCountMemo()).
+	 *
+	 * @param countMemo : a memo, or null to switch it off
+	 */
+	public void setTreeCountMemo(BoundedMemo<String, int[]> countMemo) {
+		for (FeatureExtractor extractor : extractors) {
+			if (extractor instanceof ParseTreeBasedFeatures) {
+				((ParseTreeBasedFeatures) extractor).setCountMemo(countMemo);
+			}
+		}
+	}
+
+	/**
+	 * @return the annotation layers the extractors read.
+	 */
+	public EnumSet<AnnotationLayer> getRequiredLayers() {
+		EnumSet<AnnotationLayer> layers = EnumSet.noneOf(AnnotationLayer.class);
+		for (FeatureExtractor extractor : extractors) {
+			layers.addAll(extractor.getRequiredLayers());
+		}
+		return layers;
+	}
+
+	/**
+	 * @param document : an annotated text
+	 * @return TreeMap object with feature name as key and its value as value.
+	 * @throws Exception
+	 */
+	public TreeMap<String, Double> getFeatures(AnnotatedDocument document) throws Exception {
+		// Layers are computed first, so that the extractors only read them, and the
+		// timings below are the extractors' own.
+		document.require(getRequiredLayers());
+
+		List<TreeMap<String, Double>> results = new ArrayList<TreeMap<String, Double>>();
+		if (pool == null || extractors.size() < 2) {
+			for (FeatureExtractor extractor : extractors) {
+				results.add(extract(extractor, document));
+			}
+		} else {
+			// The calling thread takes the first extractor itself.
+			List<Future<TreeMap<String, Double>>> others = new ArrayList<Future<TreeMap<String, Double>>>();
+			for (FeatureExtractor extractor : extractors.subList(1, extractors.size())) {
+				others.add(pool.submit(() -> extract(extractor, document)));
+			}
+			try {
+				results.add(extract(extractors.get(0), document));
+				for (Future<TreeMap<String, Double>> other : others) {
+					results.add(other.get());
+				}
+			} catch (ExecutionException e) {
+				throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+			} finally {
+				for (Future<TreeMap<String, Double>> other : others) {
+					other.cancel(true);
+				}
+			}
+		}
+
+		TreeMap<String, Double> allFeatures = new TreeMap<String, Double>();
+		for (TreeMap<String, Double> features : results) {
+			allFeatures.putAll(features);
+		}
+		return allFeatures;
+	}
+
+	/**
+	 * Runs one extractor and records the time it took.
+	 */
+	private TreeMap<String, Double> extract(FeatureExtractor extractor, AnnotatedDocument document)
+			throws Exception {
+		long start = System.nanoTime();
+		TreeMap<String, Double> features = extractor.extract(document);
+		if (metrics != null) {
+			metrics.recordSince(RunMetrics.EXTRACTOR_PREFIX + extractor.getName(), start);
+		}
+		return features;
+	}
+
+}
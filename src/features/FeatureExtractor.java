@@ -0,0 +1,44 @@
+/**
+ *
+ */
+package src.features;
+
+import java.util.EnumSet;
+import java.util.TreeMap;
+
+import src.preprocessing.AnnotatedDocument;
+import src.preprocessing.AnnotationLayer;
+
+/**
+ * A group of features computed from an annotated text. Implementations are
+ * found by FeatureExtractorRegistry through java.util.ServiceLoader, so they
+ * need a public constructor without arguments and a line in
+ * META-INF/services/src.features.FeatureExtractor.
+ *
+ * One instance is shared by all the threads of a run, and several documents
+ * may be extracted at the same time.
+ *
+ * @author svajjala
+ */
+public interface FeatureExtractor {
+
+	/**
+	 * @return a name for the extractor, used in timings and logs.
+	 */
+	default String getName() {
+		return getClass().getSimpleName();
+	}
+
+	/**
+	 * @return the annotation layers extract() reads.
+	 */
+	EnumSet<AnnotationLayer> getRequiredLayers();
+
+	/**
+	 * @param document : an annotated text
+	 * @return TreeMap object with feature name as key and its value as value.
+	 * @throws Exception
+	 */
+	TreeMap<String, Double> extract(AnnotatedDocument document) throws Exception;
+
+}
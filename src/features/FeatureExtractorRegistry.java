@@ -0,0 +1,58 @@
+/**
+ *
+ */
+package src.features;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Finds the feature extractors listed in
+ * META-INF/services/src.features.FeatureExtractor on the classpath. The order
+ * of that file is the order FeatureEngine merges their features in. If the
+ * file is not on the classpath (e.g. when running from a bare classes
+ * directory), the extractors of the corpus runs are used, in the same order.
+ *
+ * @author svajjala
+ */
+public class FeatureExtractorRegistry {
+
+	/**
+	 * @return a new instance of every registered extractor.
+	 * @throws Exception if an extractor cannot be created
+	 */
+	public static List<FeatureExtractor> load() throws Exception {
+		List<FeatureExtractor> extractors = new ArrayList<FeatureExtractor>();
+		try {
+			for (FeatureExtractor extractor : ServiceLoader.load(FeatureExtractor.class)) {
+				extractors.add(extractor);
+			}
+		} catch (ServiceConfigurationError e) {
+			// Report what the extractor's constructor threw (e.g. a missing word list).
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+		if (extractors.isEmpty()) {
+			System.out.println("No registered feature extractors found, using the default ones");
+			return getDefaults();
+		}
+		return extractors;
+	}
+
+	/**
+	 * @return the extractors of the corpus runs: POS tag, word, traditional,
+	 *         WordNet, psycholinguistic, parse tree and k-best parse features.
+	 * @throws Exception
+	 */
+	public static List<FeatureExtractor> getDefaults() throws Exception {
+		return new ArrayList<FeatureExtractor>(Arrays.asList(new POSTagBasedFeatures(), new WordBasedFeatures(),
+				new TraditionalFeatures(), new WordNetBasedFeatures(), new PsycholingFeatures(),
+				new ParseTreeBasedFeatures(), new KBestParseBasedFeatures()));
+	}
+
+}
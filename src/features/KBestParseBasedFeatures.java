@@ -3,12 +3,15 @@
  */
 package src.features;
 
+import java.util.EnumSet;
 import java.util.List;
 import java.util.TreeMap;
 
 import edu.stanford.nlp.trees.Tree;
 import edu.stanford.nlp.util.ScoredObject;
 import org.apache.commons.math3.stat.descriptive.moment.StandardDeviation;
+import src.preprocessing.AnnotatedDocument;
+import src.preprocessing.AnnotationLayer;
 
 /**
  * @author svajjala Generates Syntactic complexity features from Constituency
@@ -16,10 +19,28 @@ import org.apache.commons.math3.stat.descriptive.moment.StandardDeviation;
  *         are listed in the getSyntacticFeatures() method. Takes as input: list
  *         of parseTrees.
  */
-public class KBestParseBasedFeatures {
+public class KBestParseBasedFeatures implements FeatureExtractor {
 
 	/**
-	 * Extracts syntactic complexity features for a text
+	 * @return the annotation layers this extractor reads.
+	 */
+	@Override
+	public EnumSet<AnnotationLayer> getRequiredLayers() {
+		return EnumSet.of(AnnotationLayer.KBEST_TREES);
+	}
+
+	/**
+	 * Same as getSyntacticComplexityFeatures().
+	 */
+	@Override
+	public TreeMap<String, Double> extract(AnnotatedDocument document) throws Exception {
+		return getSyntacticComplexityFeatures(document.getKBestParsedSentences());
+	}
+
+	/**
+	 * Extracts syntactic complexity features for a text. Sentences without k-best
+	 * parses (the parser skipped them, see SentenceParse) are left out of the
+	 * averages; with none left, the averages are NaN, as in ParseTreeBasedFeatures.
 	 * 
 	 * @param parsedSentences : List<Tree> object
 	 * @return TreeMap object with feature name as key and its count as value.
@@ -33,7 +54,12 @@ public class KBestParseBasedFeatures {
 		Double topMeanDiffTotal = 0.;
 		Double sdTotal = 0.;
 		StandardDeviation sd = new StandardDeviation();
+		int numScoredSentences = 0;
 		for (List<ScoredObject<Tree>> scoredParses : parsedSentences) {
+			if (scoredParses.isEmpty()) {
+				continue;
+			}
+			numScoredSentences++;
 			if (scoredParses.size() > 1) {
 				top2DiffTotal += scoredParses.get(0).score() - scoredParses.get(1).score();
 			}
@@ -45,9 +71,9 @@ public class KBestParseBasedFeatures {
 		} // End of the for loop that finishes iterating through all parsed sentences in
 			// the list.
 		// Double numSentences = new Double((double) parsedSentences.size());
-		syntacticFeatures.put("SYN_top2Diff", top2DiffTotal / parsedSentences.size());
-		syntacticFeatures.put("SYN_topMeanDiff", topMeanDiffTotal / parsedSentences.size());
-		syntacticFeatures.put("SYN_parseSD", sdTotal / parsedSentences.size());
+		syntacticFeatures.put("SYN_top2Diff", top2DiffTotal / numScoredSentences);
+		syntacticFeatures.put("SYN_topMeanDiff", topMeanDiffTotal / numScoredSentences);
+		syntacticFeatures.put("SYN_parseSD", sdTotal / numScoredSentences);
 		// syntacticFeatures.put("SYN_avgSentenceLength",
 		// NumUtils.restrict2TwoDecimals(numWords / numSentences));
 		// syntacticFeatures.put("SYN_MLC", NumUtils.handleDivByZero(numWords,
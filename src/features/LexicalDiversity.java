@@ -0,0 +1,230 @@
+/**
+ *
+ */
+package src.features;
+
+import java.util.Arrays;
+
+/**
+ * Lexical diversity measures of a text, computed on its tokens as int ids (one
+ * id per type), each in a single pass with int counters: type token ratios,
+ * MTLD (forward, backward, and Julia Hancke's version used for Word_MTLD),
+ * moving average TTR (MATTR, Covington and McFall 2010) and HD-D (McCarthy and
+ * Jarvis 2007).
+ *
+ * @author svajjala
+ */
+public class LexicalDiversity {
+
+	/** TTR below which an MTLD factor ends (McCarthy and Jarvis 2010). */
+	public static final double MTLD_THRESHOLD = 0.72;
+	/** Window size of MATTR. */
+	public static final int MATTR_WINDOW = 50;
+	/** Sample size of HD-D. */
+	public static final int HDD_SAMPLE = 42;
+
+	private final int[] tokens;
+	private final int numTypes;
+
+	/**
+	 * @param tokens   : the token ids of a text, from 0 to numTypes - 1 (e.g.
+	 *                 TokenTable.getLowercaseTypes())
+	 * @param numTypes : the number of types
+	 */
+	public LexicalDiversity(int[] tokens, int numTypes) {
+		this.tokens = tokens;
+		this.numTypes = numTypes;
+	}
+
+	public int getNumTokens() {
+		return tokens.length;
+	}
+
+	public int getNumTypes() {
+		return numTypes;
+	}
+
+	/**
+	 * MTLD as computed by Julia Hancke's code, kept for Word_MTLD: its TTRs are
+	 * integer divisions, and the backward pass computes
+	 * "types / startIndex - i + 1". The result is the mean of both passes, or 0
+	 * if it is infinite.
+	 *
+	 * @throws ArithmeticException where the original divided by zero (texts of
+	 *                             one token)
+	 */
+	public double getHanckeMTLD() {
+		int n = tokens.length;
+		int[] seen = new int[numTypes];
+		int segment = 1;
+		int types = 0;
+
+		double factors = 0;
+		int startIndex = 0;
+		double ttr;
+		for (int i = 0; i < n; i++) {
+			if (seen[tokens[i]] != segment) {
+				seen[tokens[i]] = segment;
+				types++;
+			}
+			ttr = types / (i + 1 - startIndex);
+			if (ttr < MTLD_THRESHOLD) {
+				startIndex = i + 1;
+				segment++;
+				types = 0;
+				factors += 1;
+			} else if (ttr > MTLD_THRESHOLD && i == n - 1) {
+				factors += (1 - ttr) / (1 - MTLD_THRESHOLD);
+			}
+		}
+		double mtld1 = n / factors;
+
+		factors = 0;
+		startIndex = n - 1;
+		segment++;
+		types = 0;
+		for (int i = n - 1; i >= 0; i--) {
+			if (seen[tokens[i]] != segment) {
+				seen[tokens[i]] = segment;
+				types++;
+			}
+			ttr = types / startIndex - i + 1;
+			if (ttr < MTLD_THRESHOLD) {
+				startIndex = i - 1;
+				segment++;
+				types = 0;
+				factors += 1;
+			} else if (ttr > MTLD_THRESHOLD && i == 0) {
+				factors += (1 - ttr) / (1 - MTLD_THRESHOLD);
+			}
+		}
+		double mtld2 = n / factors;
+
+		double res = (mtld1 + mtld2) / 2;
+		return Double.isInfinite(res) ? 0.0 : res;
+	}
+
+	/**
+	 * MTLD of one direction: the number of tokens divided by the number of
+	 * factors, i.e. stretches whose TTR falls to the threshold, plus the partial
+	 * factor of the rest.
+	 *
+	 * @param forward : from the first token on, or from the last one back
+	 * @return MTLD, or 0 if there is not even a partial factor.
+	 */
+	public double getMTLD(boolean forward) {
+		int n = tokens.length;
+		int[] seen = new int[numTypes];
+		int segment = 1;
+		int types = 0;
+		int length = 0;
+		double factors = 0;
+		for (int k = 0; k < n; k++) {
+			int token = tokens[forward ? k : n - 1 - k];
+			if (seen[token] != segment) {
+				seen[token] = segment;
+				types++;
+			}
+			length++;
+			if ((double) types / length <= MTLD_THRESHOLD) {
+				segment++;
+				types = 0;
+				length = 0;
+				factors += 1;
+			}
+		}
+		if (length > 0) {
+			factors += (1 - (double) types / length) / (1 - MTLD_THRESHOLD);
+		}
+		return factors == 0 ? 0.0 : n / factors;
+	}
+
+	/**
+	 * @return the mean of forward and backward MTLD.
+	 */
+	public double getBidirectionalMTLD() {
+		return (getMTLD(true) + getMTLD(false)) / 2;
+	}
+
+	/**
+	 * Moving average TTR: the mean TTR of all windows of the given size. Texts
+	 * shorter than a window get their TTR.
+	 *
+	 * @param window : window size in tokens
+	 */
+	public double getMATTR(int window) {
+		int n = tokens.length;
+		if (n == 0) {
+			return 0.0;
+		}
+		if (n <= window) {
+			return (double) numTypes / n;
+		}
+		int[] counts = new int[numTypes];
+		int types = 0;
+		for (int i = 0; i < window; i++) {
+			if (counts[tokens[i]]++ == 0) {
+				types++;
+			}
+		}
+		long sumTypes = types;
+		for (int i = window; i < n; i++) {
+			if (counts[tokens[i]]++ == 0) {
+				types++;
+			}
+			if (--counts[tokens[i - window]] == 0) {
+				types--;
+			}
+			sumTypes += types;
+		}
+		return (double) sumTypes / ((long) (n - window + 1) * window);
+	}
+
+	/**
+	 * HD-D: for each type, the chance that a random sample of the text's tokens
+	 * (drawn without replacement) holds it, divided by the sample size, summed
+	 * over the types. This is the TTR the hypergeometric distribution expects for
+	 * the sample. Texts shorter than the sample are taken whole.
+	 *
+	 * @param sampleSize : sample size in tokens
+	 */
+	public double getHDD(int sampleSize) {
+		int n = tokens.length;
+		if (n == 0) {
+			return 0.0;
+		}
+		int sample = Math.min(sampleSize, n);
+		int[] counts = new int[numTypes];
+		for (int token : tokens) {
+			counts[token]++;
+		}
+		// Types of the same frequency have the same chance: compute it once.
+		Arrays.sort(counts);
+		double hdd = 0.0;
+		double contribution = 0.0;
+		for (int t = 0; t < numTypes; t++) {
+			if (t == 0 || counts[t] != counts[t - 1]) {
+				contribution = (1 - probabilityOfNone(n, counts[t], sample)) / sample;
+			}
+			hdd += contribution;
+		}
+		return hdd;
+	}
+
+	/**
+	 * @return the chance that a sample of the given size, drawn without
+	 *         replacement from population items of which frequency are of a type,
+	 *         holds none of them.
+	 */
+	private static double probabilityOfNone(int population, int frequency, int sample) {
+		if (population - frequency < sample) {
+			return 0.0;
+		}
+		double p = 1.0;
+		for (int k = 0; k < sample; k++) {
+			p *= (double) (population - frequency - k) / (population - k);
+		}
+		return p;
+	}
+
+}
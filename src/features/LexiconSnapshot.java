@@ -0,0 +1,326 @@
+/**
+ *
+ */
+package src.features;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import src.preprocessing.Vocabulary;
+
+/**
+ * Lexical resources (AoA and MRC norms, SUBTLEXus frequencies) in the binary
+ * form LexiconSnapshotCompiler writes, read in place: a snapshot file is memory
+ * mapped, so opening it takes milliseconds and processes on the same host
+ * share its pages. All reads are absolute, so any number of threads can read a
+ * snapshot at once.
+ *
+ * A snapshot records the size and modification time of the files it was
+ * compiled from. The shared snapshot is not used, with a warning, if any of
+ * those that are still there has changed since; the extractors then read the
+ * files themselves.
+ *
+ * Layout (big endian; sections start at multiples of 8):
+ *
+ * <pre>
+ * int MAGIC, int VERSION, int numStrings, int numTables,
+ * long stringOffsetsPos, long stringBytesPos,
+ * numTables times: short nameLength, byte[] name (UTF-8), int numColumns,
+ *                  int numRows, long rowStringsPos, long valuesPos, long missingPos
+ * int numSources,
+ * numSources times: short pathLength, byte[] path (UTF-8), long size,
+ *                   long lastModified
+ * int[numStrings + 1] string offsets, byte[] strings (UTF-8, sorted bytewise)
+ * per table: int[numRows] string of each row (ascending),
+ *            double[numRows * numColumns] values, byte[numRows * numColumns] missing
+ * </pre>
+ *
+ * @author svajjala
+ */
+public class LexiconSnapshot {
+
+	public static final String DEFAULT_PATH = "resources/lexicon.snapshot";
+
+	static final int MAGIC = 0x4C58534E; // "LXSN"
+	static final int VERSION = 2;
+
+	// Table names
+	public static final String AOA = "aoa";
+	public static final String MRC = "mrc";
+	public static final String SUBTLEX_US = "subtlexus";
+
+	private static LexiconSnapshot shared;
+	private static boolean sharedLoaded = false;
+
+	private final ByteBuffer buffer;
+	private final int numStrings;
+	private final long stringOffsetsPos;
+	private final long stringBytesPos;
+	private final LinkedHashMap<String, Table> tables = new LinkedHashMap<String, Table>();
+	// Path, size and modification time of each source file.
+	private final LinkedHashMap<String, long[]> sources = new LinkedHashMap<String, long[]>();
+
+	/**
+	 * @param buffer : a compiled snapshot
+	 * @throws IOException if it is not a snapshot of this version
+	 */
+	public LexiconSnapshot(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a lexicon snapshot");
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException("Lexicon snapshot version " + buffer.getInt(4) + ", expected " + VERSION
+					+ ": compile it again with LexiconSnapshotCompiler");
+		}
+		numStrings = buffer.getInt(8);
+		int numTables = buffer.getInt(12);
+		stringOffsetsPos = buffer.getLong(16);
+		stringBytesPos = buffer.getLong(24);
+		int pos = 32;
+		for (int t = 0; t < numTables; t++) {
+			byte[] name = new byte[buffer.getShort(pos)];
+			buffer.get(pos + 2, name);
+			pos += 2 + name.length;
+			Table table = new Table(new String(name, StandardCharsets.UTF_8), buffer.getInt(pos), buffer.getInt(pos + 4),
+					buffer.getLong(pos + 8), buffer.getLong(pos + 16), buffer.getLong(pos + 24));
+			pos += 32;
+			tables.put(table.name, table);
+		}
+		int numSources = buffer.getInt(pos);
+		pos += 4;
+		for (int s = 0; s < numSources; s++) {
+			byte[] path = new byte[buffer.getShort(pos)];
+			buffer.get(pos + 2, path);
+			pos += 2 + path.length;
+			sources.put(new String(path, StandardCharsets.UTF_8), new long[] { buffer.getLong(pos), buffer.getLong(pos + 8) });
+			pos += 16;
+		}
+	}
+
+	/**
+	 * Memory maps a snapshot file.
+	 *
+	 * @throws IOException
+	 */
+	public static LexiconSnapshot open(String path) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(path, "r"); FileChannel channel = file.getChannel()) {
+			return new LexiconSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * @return the snapshot at DEFAULT_PATH, mapped on first use, or null if there
+	 *         is none or its sources changed since it was compiled.
+	 * @throws IOException if it cannot be read
+	 */
+	public static synchronized LexiconSnapshot getShared() throws IOException {
+		if (!sharedLoaded) {
+			if (new File(DEFAULT_PATH).exists()) {
+				long start = System.nanoTime();
+				LexiconSnapshot snapshot = open(DEFAULT_PATH);
+				List<String> changed = snapshot.getChangedSources();
+				if (changed.isEmpty()) {
+					shared = snapshot;
+					System.out.println("Mapped lexicon snapshot " + DEFAULT_PATH + " with " + shared.tables.keySet()
+							+ " in " + (System.nanoTime() - start) / 1000000 + " ms");
+				} else {
+					System.out.println("WARNING: not using the lexicon snapshot " + DEFAULT_PATH + ", " + changed
+							+ " changed since it was compiled; reading the source files instead."
+							+ " Run LexiconSnapshotCompiler to compile it again.");
+				}
+			}
+			sharedLoaded = true;
+		}
+		return shared;
+	}
+
+	/**
+	 * @return the source files whose size or modification time is not what it was
+	 *         when the snapshot was compiled. Files that are not there are not
+	 *         checked, so a snapshot can be used without its sources.
+	 */
+	public List<String> getChangedSources() {
+		List<String> changed = new ArrayList<String>();
+		for (Map.Entry<String, long[]> source : sources.entrySet()) {
+			File file = new File(source.getKey());
+			if (file.exists()
+					&& (file.length() != source.getValue()[0] || file.lastModified() != source.getValue()[1])) {
+				changed.add(source.getKey());
+			}
+		}
+		return changed;
+	}
+
+	public int getNumStrings() {
+		return numStrings;
+	}
+
+	/**
+	 * @return the string with the given index.
+	 */
+	public String getString(int index) {
+		int start = buffer.getInt((int) stringOffsetsPos + 4 * index);
+		int end = buffer.getInt((int) stringOffsetsPos + 4 * (index + 1));
+		byte[] bytes = new byte[end - start];
+		buffer.get((int) stringBytesPos + start, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the index of a string, or -1 if the snapshot does not have it.
+	 */
+	public int find(String string) {
+		byte[] key = string.getBytes(StandardCharsets.UTF_8);
+		int low = 0;
+		int high = numStrings - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compareString(mid, key);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Compares a string of the snapshot to UTF-8 bytes, bytewise as unsigned
+	 * values (the order of the string table).
+	 */
+	private int compareString(int index, byte[] key) {
+		int start = buffer.getInt((int) stringOffsetsPos + 4 * index);
+		int length = buffer.getInt((int) stringOffsetsPos + 4 * (index + 1)) - start;
+		int base = (int) stringBytesPos + start;
+		for (int i = 0; i < Math.min(length, key.length); i++) {
+			int cmp = Byte.toUnsignedInt(buffer.get(base + i)) - Byte.toUnsignedInt(key[i]);
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+		return length - key.length;
+	}
+
+	/**
+	 * @return the table with the given name, or null.
+	 */
+	public Table getTable(String name) {
+		return tables.get(name);
+	}
+
+	public boolean hasTable(String name) {
+		return tables.containsKey(name);
+	}
+
+	/**
+	 * Rows of double values, one per word, in the order of the string table.
+	 */
+	public class Table {
+		private final String name;
+		private final int numColumns;
+		private final int numRows;
+		private final int rowStringsPos;
+		private final int valuesPos;
+		private final int missingPos;
+
+		Table(String name, int numColumns, int numRows, long rowStringsPos, long valuesPos, long missingPos) {
+			this.name = name;
+			this.numColumns = numColumns;
+			this.numRows = numRows;
+			this.rowStringsPos = (int) rowStringsPos;
+			this.valuesPos = (int) valuesPos;
+			this.missingPos = (int) missingPos;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getNumColumns() {
+			return numColumns;
+		}
+
+		public int getNumRows() {
+			return numRows;
+		}
+
+		/**
+		 * @return the word of a row.
+		 */
+		public String getWord(int row) {
+			return getString(buffer.getInt(rowStringsPos + 4 * row));
+		}
+
+		/**
+		 * @return the row of a word, or -1.
+		 */
+		public int findRow(String word) {
+			int string = find(word);
+			if (string < 0) {
+				return -1;
+			}
+			int low = 0;
+			int high = numRows - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int midString = buffer.getInt(rowStringsPos + 4 * mid);
+				if (midString < string) {
+					low = mid + 1;
+				} else if (midString > string) {
+					high = mid - 1;
+				} else {
+					return mid;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * @return a value, 0 if missing.
+		 */
+		public double getValue(int row, int column) {
+			return buffer.getDouble(valuesPos + 8 * (row * numColumns + column));
+		}
+
+		/**
+		 * @return whether a value was "none" or "NA" in the source.
+		 */
+		public boolean isMissing(int row, int column) {
+			return buffer.get(missingPos + row * numColumns + column) != 0;
+		}
+
+		/**
+		 * @param vocabulary : gives the word ids
+		 * @return for every word id, its row, or -1. Ids given after this call are
+		 *         beyond the end of the array, and have no row.
+		 */
+		public int[] getRowsByWordId(Vocabulary vocabulary) {
+			int[] ids = new int[numRows];
+			int maxId = -1;
+			for (int row = 0; row < numRows; row++) {
+				ids[row] = vocabulary.getId(getWord(row));
+				maxId = Math.max(maxId, ids[row]);
+			}
+			int[] rows = new int[maxId + 1];
+			Arrays.fill(rows, -1);
+			for (int row = 0; row < numRows; row++) {
+				rows[ids[row]] = row;
+			}
+			return rows;
+		}
+	}
+
+}
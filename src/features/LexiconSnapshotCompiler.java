@@ -0,0 +1,253 @@
+/**
+ *
+ */
+package src.features;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Compiles lexical resources into a LexiconSnapshot: one sorted string table
+ * for all words, and per resource a table of double columns. Values are parsed
+ * here, once, so that reading the snapshot needs no parsing at all. The size
+ * and modification time of each source file go into the snapshot, so that a
+ * snapshot older than its sources is noticed when it is read.
+ *
+ * Run it after changing anything in resources/ (a snapshot of an older format
+ * version is refused when read, and one whose sources changed is ignored).
+ * Resources that are not there are skipped.
+ * Usage: LexiconSnapshotCompiler [outputPath] (default:
+ * resources/lexicon.snapshot)
+ *
+ * @author svajjala
+ */
+public class LexiconSnapshotCompiler {
+
+	private final LinkedHashMap<String, Source> tables = new LinkedHashMap<String, Source>();
+	// Path, size and modification time of each source file.
+	private final List<String> sourcePaths = new ArrayList<String>();
+	private final List<long[]> sourceStamps = new ArrayList<long[]>();
+
+	public static void main(String[] args) throws Exception {
+		String outputPath = args.length > 0 ? args[0] : LexiconSnapshot.DEFAULT_PATH;
+		long start = System.nanoTime();
+		LexiconSnapshotCompiler compiler = new LexiconSnapshotCompiler();
+		if (exists(PsycholingLexicon.AOA_PATH)) {
+			compiler.addSource(PsycholingLexicon.AOA_PATH);
+			compiler.addTable(LexiconSnapshot.AOA, PsycholingLexicon.NUM_AOA_COLUMNS,
+					PsycholingLexicon.readAoA(PsycholingLexicon.AOA_PATH));
+		}
+		if (exists(PsycholingLexicon.MRC_PATH)) {
+			compiler.addSource(PsycholingLexicon.MRC_PATH);
+			compiler.addTable(LexiconSnapshot.MRC, PsycholingLexicon.NUM_MRC_COLUMNS,
+					PsycholingLexicon.readMRC(PsycholingLexicon.MRC_PATH));
+		}
+		if (exists(WordlistsBasedFeatures.SUBTLEX_US_PATH)) {
+			compiler.addSource(WordlistsBasedFeatures.SUBTLEX_US_PATH);
+			compiler.addValues(LexiconSnapshot.SUBTLEX_US,
+					WordlistsBasedFeatures.readSubtlexUSList(WordlistsBasedFeatures.SUBTLEX_US_PATH));
+		}
+		compiler.write(outputPath);
+		System.out.println("Wrote " + compiler.tables.keySet() + " to " + outputPath + " in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+	}
+
+	private static boolean exists(String path) {
+		if (new File(path).exists()) {
+			return true;
+		}
+		System.out.println("Skipping " + path + ": not found");
+		return false;
+	}
+
+	/**
+	 * Adds a table of values given as strings; "none" and "NA" are taken as 0 and
+	 * marked as missing.
+	 *
+	 * @param rows : each word with its numColumns values
+	 * @throws NumberFormatException if a value is not a number
+	 */
+	public void addTable(String name, int numColumns, Map<String, String[]> rows) {
+		Source source = new Source(numColumns);
+		for (Map.Entry<String, String[]> row : rows.entrySet()) {
+			double[] values = new double[numColumns];
+			boolean[] missing = new boolean[numColumns];
+			for (int c = 0; c < numColumns; c++) {
+				String value = row.getValue()[c];
+				String replaced = value.replaceAll("none", "0").replaceAll("NA", "0");
+				values[c] = Double.parseDouble(replaced);
+				missing[c] = !replaced.equals(value);
+			}
+			source.put(row.getKey(), values, missing);
+		}
+		tables.put(name, source);
+	}
+
+	/**
+	 * Adds a table with one column.
+	 */
+	public void addValues(String name, Map<String, Double> values) {
+		Source source = new Source(1);
+		for (Map.Entry<String, Double> value : values.entrySet()) {
+			source.put(value.getKey(), new double[] { value.getValue() }, new boolean[1]);
+		}
+		tables.put(name, source);
+	}
+
+	/**
+	 * Records the size and modification time of a source file, so that the
+	 * snapshot is not used once the file has changed. Call it before reading the
+	 * file.
+	 *
+	 * @param path : path of the file, as it is read at run time
+	 */
+	public void addSource(String path) {
+		File file = new File(path);
+		sourcePaths.add(path);
+		sourceStamps.add(new long[] { file.length(), file.lastModified() });
+	}
+
+	/**
+	 * @return the snapshot of the tables added so far, in memory.
+	 */
+	public ByteBuffer compile() {
+		// The string table: every word of every table once, in bytewise order.
+		TreeSet<byte[]> stringSet = new TreeSet<byte[]>(Arrays::compareUnsigned);
+		for (Source source : tables.values()) {
+			for (String word : source.rows.keySet()) {
+				stringSet.add(word.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		byte[][] strings = stringSet.toArray(new byte[0][]);
+		HashMap<String, Integer> stringIndex = new HashMap<String, Integer>();
+		int numStringBytes = 0;
+		for (int s = 0; s < strings.length; s++) {
+			stringIndex.put(new String(strings[s], StandardCharsets.UTF_8), s);
+			numStringBytes += strings[s].length;
+		}
+
+		// Where everything goes.
+		int headerSize = 32;
+		for (String name : tables.keySet()) {
+			headerSize += 2 + name.getBytes(StandardCharsets.UTF_8).length + 32;
+		}
+		headerSize += 4;
+		for (String path : sourcePaths) {
+			headerSize += 2 + path.getBytes(StandardCharsets.UTF_8).length + 16;
+		}
+		long stringOffsetsPos = align(headerSize);
+		long stringBytesPos = stringOffsetsPos + 4L * (strings.length + 1);
+		long pos = align(stringBytesPos + numStringBytes);
+		LinkedHashMap<String, long[]> sections = new LinkedHashMap<String, long[]>();
+		for (Map.Entry<String, Source> table : tables.entrySet()) {
+			int numRows = table.getValue().rows.size();
+			int numValues = numRows * table.getValue().numColumns;
+			long rowStringsPos = pos;
+			long valuesPos = align(rowStringsPos + 4L * numRows);
+			long missingPos = valuesPos + 8L * numValues;
+			pos = align(missingPos + numValues);
+			sections.put(table.getKey(), new long[] { rowStringsPos, valuesPos, missingPos });
+		}
+		if (pos > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Lexicon snapshot too large: " + pos + " bytes");
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate((int) pos);
+		buffer.putInt(LexiconSnapshot.MAGIC).putInt(LexiconSnapshot.VERSION).putInt(strings.length)
+				.putInt(tables.size()).putLong(stringOffsetsPos).putLong(stringBytesPos);
+		for (Map.Entry<String, Source> table : tables.entrySet()) {
+			byte[] name = table.getKey().getBytes(StandardCharsets.UTF_8);
+			long[] section = sections.get(table.getKey());
+			buffer.putShort((short) name.length).put(name).putInt(table.getValue().numColumns)
+					.putInt(table.getValue().rows.size()).putLong(section[0]).putLong(section[1]).putLong(section[2]);
+		}
+		buffer.putInt(sourcePaths.size());
+		for (int s = 0; s < sourcePaths.size(); s++) {
+			byte[] path = sourcePaths.get(s).getBytes(StandardCharsets.UTF_8);
+			buffer.putShort((short) path.length).put(path).putLong(sourceStamps.get(s)[0])
+					.putLong(sourceStamps.get(s)[1]);
+		}
+
+		buffer.position((int) stringOffsetsPos);
+		int offset = 0;
+		for (byte[] string : strings) {
+			buffer.putInt(offset);
+			offset += string.length;
+		}
+		buffer.putInt(offset);
+		for (byte[] string : strings) {
+			buffer.put(string);
+		}
+
+		for (Map.Entry<String, Source> table : tables.entrySet()) {
+			Source source = table.getValue();
+			long[] section = sections.get(table.getKey());
+			// Rows in the order of the string table.
+			String[] words = source.rows.keySet().toArray(new String[0]);
+			int[] rowStrings = new int[words.length];
+			for (int row = 0; row < words.length; row++) {
+				rowStrings[row] = stringIndex.get(words[row]);
+			}
+			Arrays.sort(rowStrings);
+			for (int row = 0; row < rowStrings.length; row++) {
+				String word = new String(strings[rowStrings[row]], StandardCharsets.UTF_8);
+				buffer.putInt((int) section[0] + 4 * row, rowStrings[row]);
+				for (int c = 0; c < source.numColumns; c++) {
+					int value = row * source.numColumns + c;
+					buffer.putDouble((int) section[1] + 8 * value, source.rows.get(word)[c]);
+					buffer.put((int) section[2] + value, (byte) (source.missing.get(word)[c] ? 1 : 0));
+				}
+			}
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Compiles the tables added so far into a snapshot file.
+	 *
+	 * @throws IOException
+	 */
+	public void write(String path) throws IOException {
+		ByteBuffer buffer = compile();
+		try (FileOutputStream out = new FileOutputStream(path); FileChannel channel = out.getChannel()) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	private static long align(long pos) {
+		return (pos + 7) & ~7L;
+	}
+
+	/**
+	 * The rows of a table to compile.
+	 */
+	private static class Source {
+		private final int numColumns;
+		private final LinkedHashMap<String, double[]> rows = new LinkedHashMap<String, double[]>();
+		private final HashMap<String, boolean[]> missing = new HashMap<String, boolean[]>();
+
+		Source(int numColumns) {
+			this.numColumns = numColumns;
+		}
+
+		void put(String word, double[] values, boolean[] missingValues) {
+			rows.put(word, values);
+			missing.put(word, missingValues);
+		}
+	}
+
+}
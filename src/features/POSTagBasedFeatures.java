@@ -5,6 +5,10 @@ package src.features;
 
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.TreeMap;
 
@@ -14,22 +18,85 @@ import edu.stanford.nlp.ling.HasWord;
 import edu.stanford.nlp.ling.TaggedWord;
 import edu.stanford.nlp.process.DocumentPreprocessor;
 import edu.stanford.nlp.tagger.maxent.MaxentTagger;
+import src.preprocessing.AnnotatedDocument;
+import src.preprocessing.AnnotationLayer;
 import src.utils.genutils.*;
-import edu.stanford.nlp.stats.ClassicCounter;
-import edu.stanford.nlp.stats.Counter;
-import edu.stanford.nlp.stats.Counters;
 
 /**
  * Calculates features that are based on POS tag representations.
  * 
  * @author svajjala
  */
-public class POSTagBasedFeatures {
+public class POSTagBasedFeatures implements FeatureExtractor {
+
+	// The Penn Treebank tags (and punctuation tags) of the tagger, in String order,
+	// which is the order of POS_tagSD. A tag's id is its position here.
+	private static final String[] TAGS = { "#", "$", "''", ",", "-LRB-", "-RRB-", ".", ":", "CC", "CD", "DT", "EX",
+			"FW", "IN", "JJ", "JJR", "JJS", "LS", "MD", "NN", "NNP", "NNPS", "NNS", "PDT", "POS", "PRP", "PRP$", "RB",
+			"RBR", "RBS", "RP", "SYM", "TO", "UH", "VB", "VBD", "VBG", "VBN", "VBP", "VBZ", "WDT", "WP", "WP$", "WRB",
+			"``" };
+	private static final int NUM_TAGS = TAGS.length;
+	private static final HashMap<String, Integer> TAG_IDS = new HashMap<String, Integer>();
+	private static final int[] TAG_HASHES = new int[NUM_TAGS];
+	static {
+		for (int i = 0; i < NUM_TAGS; i++) {
+			if (i > 0 && TAGS[i - 1].compareTo(TAGS[i]) >= 0) {
+				throw new IllegalStateException("TAGS must be sorted: " + TAGS[i]);
+			}
+			TAG_IDS.put(TAGS[i], i);
+			TAG_HASHES[i] = spread(TAGS[i]);
+		}
+	}
+	private static final int CC = TAG_IDS.get("CC");
+	private static final int DT = TAG_IDS.get("DT");
+	private static final int IN = TAG_IDS.get("IN");
+	private static final int JJ = TAG_IDS.get("JJ");
+	private static final int JJR = TAG_IDS.get("JJR");
+	private static final int JJS = TAG_IDS.get("JJS");
+	private static final int MD = TAG_IDS.get("MD");
+	private static final int NN = TAG_IDS.get("NN");
+	private static final int NNP = TAG_IDS.get("NNP");
+	private static final int NNPS = TAG_IDS.get("NNPS");
+	private static final int NNS = TAG_IDS.get("NNS");
+	private static final int PRP = TAG_IDS.get("PRP");
+	private static final int PRP$ = TAG_IDS.get("PRP$");
+	private static final int RB = TAG_IDS.get("RB");
+	private static final int RBR = TAG_IDS.get("RBR");
+	private static final int RBS = TAG_IDS.get("RBS");
+	private static final int RP = TAG_IDS.get("RP");
+	private static final int UH = TAG_IDS.get("UH");
+	// VB to VBZ are consecutive ids.
+	private static final int VB = TAG_IDS.get("VB");
+	private static final int VBD = TAG_IDS.get("VBD");
+	private static final int VBG = TAG_IDS.get("VBG");
+	private static final int VBN = TAG_IDS.get("VBN");
+	private static final int VBP = TAG_IDS.get("VBP");
+	private static final int VBZ = TAG_IDS.get("VBZ");
+	private static final int WP = TAG_IDS.get("WP");
+	private static final int WP$ = TAG_IDS.get("WP$");
+	// As in Counters.klDivergence().
+	private static final double LOG_E_2 = Math.log(2.0);
 
 	public POSTagBasedFeatures() {
 
 	}
 
+	/**
+	 * @return the annotation layers this extractor reads.
+	 */
+	@Override
+	public EnumSet<AnnotationLayer> getRequiredLayers() {
+		return EnumSet.of(AnnotationLayer.TAGS);
+	}
+
+	/**
+	 * Same as getPOSTagBasedFeatures().
+	 */
+	@Override
+	public TreeMap<String, Double> extract(AnnotatedDocument document) throws Exception {
+		return getPOSTagBasedFeatures(document.getTaggedSentences());
+	}
+
 	/**
 	 * @param args
 	 */
@@ -61,147 +128,54 @@ public class POSTagBasedFeatures {
 	public TreeMap<String, Double> getPOSTagBasedFeatures(List<List<TaggedWord>> taggedSentences) throws Exception {
 
 		TreeMap<String, Double> posFeatures = new TreeMap<String, Double>();
-		int TotalWords = 0;
-		int numAdj = 0;
-		int numNouns = 0;
-		int numVerbs = 0;
-		int numPronouns = 0;
-		int numConjunct = 0;
-		int numProperNouns = 0;
-		int numPrepositions = 0;
-		int numAdverbs = 0;
-		int numLexicals = 0;
-		int numModals = 0;
-		int numInterjections = 0;
-		int perpronouns = 0; // adding num Personal Pronouns with the hypothesis that they will occur more in
-													// Simple Sentences
-		int whperpronouns = 0; // adding num Wh personal pronouns with the hypothesis that they will occur more
-														// in Normal sentences.
-		int numauxverbs = 0;
-		int numFunctionWords = 0; // by Wiki: Articles, Pronouns, Conjunctions, Interjections, Prep, Adverbs,
-															// Aux-Verbs.
-		int numDeterminers = 0;
-		// int numTenses = 0; //Number of different tenses in the sentence. Intuition:
-		// More tenses, more difficult to understand.
-		int numVB = 0;
-		int numVBD = 0;
-		int numVBG = 0;
-		int numVBN = 0;
-		int numVBP = 0;
-		int numVBZ = 0;
-
-		ArrayList<String> uniqueVerbs = new ArrayList<String>();
-		TreeMap<String, Integer> tagCounts = new TreeMap<String, Integer>();
-		Counter<String> tagCounter = new ClassicCounter<String>();
+		TagCounts counts = new TagCounts();
+		HashSet<String> uniqueVerbs = new HashSet<String>();
+		// The one pass over the tokens: tag counts of the text and of each sentence,
+		// and the verb types.
 		for (List<TaggedWord> sentence : taggedSentences) {
 			for (TaggedWord wordtag : sentence) {
-				String tag = wordtag.tag();
-				String word = wordtag.word();
-				Integer tagCount = tagCounts.getOrDefault(tag, 0);
-				tagCounts.put(tag, tagCount + 1);
-				tagCounter.incrementCount(tag);
-				if (tag.equals("PRP") || tag.equals("PRP$") || tag.equals("WP") || tag.equals("WP$")) {
-					numPronouns++;
-					if (tag.equals("PRP")) {
-						perpronouns++;
-					}
-					if (tag.equals("WP")) {
-						whperpronouns++;
-					}
-					numFunctionWords++;
-					TotalWords++;
-				}
-				if (tag.equals("VB") || tag.equals("VBD") || tag.equals("VBG") || tag.equals("VBN") || tag.equals("VBP")
-						|| tag.equals("VBZ")) {
-					numVerbs++;
-					TotalWords++;
-					if (!uniqueVerbs.contains(word)) {
-						uniqueVerbs.add(word);
-					}
-					if (tag.equals("VB")) {
-						numVB++;
-					} else if (tag.equals("VBD")) {
-						numVBD++;
-					} else if (tag.equals("VBG")) {
-						numVBG++;
-					} else if (tag.equals("VBN")) {
-						numVBN++;
-					}
-					if (tag.equals("VBP")) {
-						numVBP++;
-					}
-					if (tag.equals("VBZ")) {
-						numVBZ++;
-					}
+				int tag = counts.add(wordtag.tag());
+				if (tag >= VB && tag <= VBZ) {
+					uniqueVerbs.add(wordtag.word());
 				}
-				if (tag.equals("JJ") || tag.equals("JJR") || tag.equals("JJS")) {
-					numAdj++;
-					TotalWords++;
-				}
-				if (tag.equals("RB") || tag.equals("RBR") || tag.equals("RBS") || tag.equals("RP")) {
-					numAdverbs++;
-					numFunctionWords++;
-					TotalWords++;
-				}
-				if (tag.equals("IN")) {
-					numPrepositions++;
-					numFunctionWords++;
-					TotalWords++;
-				}
-				if (tag.equals("UH")) {
-					numInterjections++;
-					numFunctionWords++;
-					TotalWords++;
-				}
-				if (tag.equals("CC")) {
-					numConjunct++;
-					numFunctionWords++;
-					TotalWords++;
-				}
-				if (tag.equals("NN") || tag.equals("NNS")) {
-
-					numNouns++;
-					TotalWords++;
-				}
-				if (tag.equals("NNP") || tag.equals("NNPS")) {
-					numProperNouns++;
-					TotalWords++;
-				}
-				if (tag.equals("MD")) {
-					numModals++;
-					numauxverbs++;
-					numFunctionWords++;
-					TotalWords++;
-				}
-				if (tag.equals("DT")) {
-					numFunctionWords++;
-					numDeterminers++;
-					TotalWords++;
-				}
-
-			} // End of all words in a sentence.
-		} // End of all sentences
-		Double totalDiv = 0.;
-		for (List<TaggedWord> sentence : taggedSentences) {
-			Counter<String> sentTagCount = new ClassicCounter<String>();
-			for (TaggedWord wordtag : sentence) {
-				sentTagCount.incrementCount(wordtag.tag());
 			}
-			totalDiv += Counters.klDivergence(sentTagCount, tagCounter);
+			counts.endSentence();
 		}
-		numLexicals += numAdj + numNouns + numVerbs + numAdverbs + numProperNouns; // Lex.Den = NumLexicals/TotalWords
+		int[] tagCounts = counts.tagCounts;
+
+		int numAdj = tagCounts[JJ] + tagCounts[JJR] + tagCounts[JJS];
+		int numNouns = tagCounts[NN] + tagCounts[NNS];
+		int numVB = tagCounts[VB];
+		int numVBD = tagCounts[VBD];
+		int numVBG = tagCounts[VBG];
+		int numVBN = tagCounts[VBN];
+		int numVBP = tagCounts[VBP];
+		int numVBZ = tagCounts[VBZ];
+		int numVerbs = numVB + numVBD + numVBG + numVBN + numVBP + numVBZ;
+		int perpronouns = tagCounts[PRP]; // adding num Personal Pronouns with the hypothesis that they will occur
+											// more in Simple Sentences
+		int whperpronouns = tagCounts[WP]; // adding num Wh personal pronouns with the hypothesis that they will
+											// occur more in Normal sentences.
+		int numPronouns = perpronouns + tagCounts[PRP$] + whperpronouns + tagCounts[WP$];
+		int numConjunct = tagCounts[CC];
+		int numProperNouns = tagCounts[NNP] + tagCounts[NNPS];
+		int numPrepositions = tagCounts[IN];
+		int numAdverbs = tagCounts[RB] + tagCounts[RBR] + tagCounts[RBS] + tagCounts[RP];
+		int numModals = tagCounts[MD];
+		int numInterjections = tagCounts[UH];
+		int numauxverbs = numModals;
+		int numDeterminers = tagCounts[DT];
+		// by Wiki: Articles, Pronouns, Conjunctions, Interjections, Prep, Adverbs, Aux-Verbs.
+		int numFunctionWords = numPronouns + numAdverbs + numPrepositions + numInterjections + numConjunct
+				+ numModals + numDeterminers;
+		int TotalWords = numFunctionWords + numVerbs + numAdj + numNouns + numProperNouns;
+		int numLexicals = numAdj + numNouns + numVerbs + numAdverbs + numProperNouns; // Lex.Den = NumLexicals/TotalWords
 		int numVerbsOnly = numVerbs - numauxverbs;
-		double[] tagCountsArray = tagCounts.values().stream().mapToDouble(x -> x).toArray();
-		// Integer[] tagCountsArray = tagCountsCollection.toArray(new
-		// Integer[tagCountsCollection.size()]);
-		StandardDeviation sd = new StandardDeviation();
-		// Index index = new Index();
-		// tagCounts.keySet().stream().forEach(x -> index.addToIndex(x));
-		// Counter<double> docTagCounts = Counters.toCounter(tagCountsArray, index);
-		// Distribution tagDist = Distribution()
 
-		posFeatures.put("POS_tagSD", NumUtils.restrict2TwoDecimals(sd.evaluate(tagCountsArray)));
-		posFeatures.put("POS_avgSenKLDiv", NumUtils.restrict2TwoDecimals((double) (totalDiv) / taggedSentences.size()));
+		StandardDeviation sd = new StandardDeviation();
+		posFeatures.put("POS_tagSD", NumUtils.restrict2TwoDecimals(sd.evaluate(counts.getSortedTagCounts())));
+		posFeatures.put("POS_avgSenKLDiv",
+				NumUtils.restrict2TwoDecimals(counts.getTotalKLDivergence() / taggedSentences.size()));
 		posFeatures.put("POS_numNouns", NumUtils.restrict2TwoDecimals((double) (numNouns + numProperNouns) / TotalWords));
 		posFeatures.put("POS_numProperNouns", NumUtils.restrict2TwoDecimals((double) numProperNouns / TotalWords));
 		posFeatures.put("POS_numPronouns", NumUtils.restrict2TwoDecimals((double) (numPronouns) / TotalWords));
@@ -237,4 +211,155 @@ public class POSTagBasedFeatures {
 
 		return posFeatures;
 	}
+
+	/**
+	 * Tag counts of a text and of each of its sentences, on tag ids. Tags outside
+	 * TAGS get ids after them, in order of appearance.
+	 */
+	private static class TagCounts {
+		private int[] tagCounts = new int[NUM_TAGS];
+		private int totalTokens = 0;
+		private final HashMap<String, Integer> otherTags = new HashMap<String, Integer>();
+		private final List<String> otherTagNames = new ArrayList<String>();
+
+		// The sentence being counted: counts, and its tags in order of appearance.
+		private int[] sentenceCounts = new int[NUM_TAGS];
+		private int[] sentenceTags = new int[16];
+		private int numSentenceTags = 0;
+		private int sentenceTokens = 0;
+
+		// All finished sentences, one after the other: tag, count pairs and where
+		// each sentence starts.
+		private int[] pairs = new int[256];
+		private int numPairs = 0;
+		private int[] sentenceStarts = new int[17];
+		private int[] sentenceSizes = new int[16];
+		private int numSentences = 0;
+
+		/**
+		 * Counts a token, and returns the id of its tag.
+		 */
+		int add(String tagName) {
+			Integer id = TAG_IDS.get(tagName);
+			int tag = id != null ? id : getOtherTag(tagName);
+			tagCounts[tag]++;
+			totalTokens++;
+			if (sentenceCounts[tag]++ == 0) {
+				if (numSentenceTags == sentenceTags.length) {
+					sentenceTags = Arrays.copyOf(sentenceTags, 2 * numSentenceTags);
+				}
+				sentenceTags[numSentenceTags++] = tag;
+			}
+			sentenceTokens++;
+			return tag;
+		}
+
+		private int getOtherTag(String tagName) {
+			Integer id = otherTags.get(tagName);
+			if (id == null) {
+				id = NUM_TAGS + otherTagNames.size();
+				otherTags.put(tagName, id);
+				otherTagNames.add(tagName);
+				tagCounts = Arrays.copyOf(tagCounts, id + 1);
+				sentenceCounts = Arrays.copyOf(sentenceCounts, id + 1);
+			}
+			return id;
+		}
+
+		private int hash(int tag) {
+			return tag < NUM_TAGS ? TAG_HASHES[tag] : spread(otherTagNames.get(tag - NUM_TAGS));
+		}
+
+		/**
+		 * Stores the counts of the sentence just counted and starts the next one.
+		 * The tags are stored in the order a HashMap-backed ClassicCounter iterates
+		 * over them (by bucket, then by insertion within a bucket), so that the KL
+		 * divergences below add up exactly as Counters.klDivergence() did.
+		 */
+		void endSentence() {
+			int buckets = 16;
+			while (numSentenceTags > buckets * 3 / 4) {
+				buckets *= 2;
+			}
+			int mask = buckets - 1;
+			for (int i = 1; i < numSentenceTags; i++) {
+				int tag = sentenceTags[i];
+				int bucket = hash(tag) & mask;
+				int j = i - 1;
+				while (j >= 0 && (hash(sentenceTags[j]) & mask) > bucket) {
+					sentenceTags[j + 1] = sentenceTags[j];
+					j--;
+				}
+				sentenceTags[j + 1] = tag;
+			}
+
+			if (numPairs + 2 * numSentenceTags > pairs.length) {
+				pairs = Arrays.copyOf(pairs, Math.max(2 * pairs.length, numPairs + 2 * numSentenceTags));
+			}
+			for (int i = 0; i < numSentenceTags; i++) {
+				int tag = sentenceTags[i];
+				pairs[numPairs++] = tag;
+				pairs[numPairs++] = sentenceCounts[tag];
+				sentenceCounts[tag] = 0;
+			}
+			if (numSentences + 1 == sentenceSizes.length) {
+				sentenceSizes = Arrays.copyOf(sentenceSizes, 2 * sentenceSizes.length);
+				sentenceStarts = Arrays.copyOf(sentenceStarts, 2 * sentenceStarts.length);
+			}
+			sentenceSizes[numSentences] = sentenceTokens;
+			numSentences++;
+			sentenceStarts[numSentences] = numPairs;
+			numSentenceTags = 0;
+			sentenceTokens = 0;
+		}
+
+		/**
+		 * @return the sum over the sentences of the KL divergence (in bits) of the
+		 *         sentence's tag distribution from the text's.
+		 */
+		double getTotalKLDivergence() {
+			double totalDiv = 0.;
+			double tot2 = totalTokens;
+			for (int s = 0; s < numSentences; s++) {
+				double result = 0.0;
+				double tot = sentenceSizes[s];
+				for (int p = sentenceStarts[s]; p < sentenceStarts[s + 1]; p += 2) {
+					double num = pairs[p + 1] / tot;
+					double num2 = tagCounts[pairs[p]] / tot2;
+					double logFract = Math.log(num / num2);
+					if (logFract == Double.NEGATIVE_INFINITY) {
+						result = Double.NEGATIVE_INFINITY;
+						break;
+					}
+					result += num * (logFract / LOG_E_2);
+				}
+				totalDiv += result;
+			}
+			return totalDiv;
+		}
+
+		/**
+		 * @return the counts of the tags that occur, in the String order of the tags.
+		 */
+		double[] getSortedTagCounts() {
+			if (otherTagNames.isEmpty()) {
+				return Arrays.stream(tagCounts).filter(c -> c > 0).asDoubleStream().toArray();
+			}
+			TreeMap<String, Integer> sorted = new TreeMap<String, Integer>();
+			for (int tag = 0; tag < tagCounts.length; tag++) {
+				if (tagCounts[tag] > 0) {
+					sorted.put(tag < NUM_TAGS ? TAGS[tag] : otherTagNames.get(tag - NUM_TAGS), tagCounts[tag]);
+				}
+			}
+			return sorted.values().stream().mapToDouble(x -> x).toArray();
+		}
+	}
+
+	/**
+	 * The bucket hash HashMap uses for a key.
+	 */
+	private static int spread(String key) {
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
 }
@@ -5,6 +5,7 @@ package src.features;
 
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.TreeMap;
 
@@ -19,6 +20,9 @@ import edu.stanford.nlp.trees.tregex.TregexMatcher;
 import edu.stanford.nlp.trees.tregex.TregexPattern;
 import edu.stanford.nlp.trees.tregex.TregexPatternCompiler;
 
+import src.preprocessing.AnnotatedDocument;
+import src.preprocessing.AnnotationLayer;
+import src.preprocessing.SentenceParse;
 import src.utils.genutils.*;
 
 /**
@@ -27,11 +31,70 @@ import src.utils.genutils.*;
  *         are listed in the getSyntacticFeatures() method. Takes as input: list
  *         of parseTrees.
  */
-public class ParseTreeBasedFeatures {
+public class ParseTreeBasedFeatures implements FeatureExtractor {
+
+	// Per sentence counts, see getCounts().
+	private static final int SBAR = 0;
+	private static final int HEIGHT = 1;
+	private static final int WORDS = 2;
+	private static final int SUBTREES = 3;
+	private static final int NP = 4;
+	private static final int NP_SIZE = 5;
+	private static final int VP = 6;
+	private static final int VP_SIZE = 7;
+	private static final int PP = 8;
+	private static final int PP_SIZE = 9;
+	private static final int WH_PHRASES = 10;
+	private static final int RRC = 11;
+	private static final int CONJ_PHRASES = 12;
+	private static final int CLAUSES = 13;
+	private static final int TUNITS = 14;
+	private static final int DEPENDENT_CLAUSES = 15;
+	private static final int COORDINATE_CLAUSES = 16;
+	private static final int COMPLEX_TUNITS = 17;
+	private static final int COMPLEX_NOMINALS = 18;
+	private static final int NUM_COUNTS = 19;
+
+	private BoundedMemo<String, int[]> countMemo;
 
 	public ParseTreeBasedFeatures() {
 	}
 
+	/**
+	 * Makes this extractor keep the counts of every tree it sees, and reuse them
+	 * for the same tree, which comes up for repeated sentences (and for every
+	 * sentence of getParsedSentences(), which lists each tree twice).
+	 * 
+	 * @param countMemo : a memo keyed by the tree's string, or null to switch it
+	 *                  off
+	 */
+	public void setCountMemo(BoundedMemo<String, int[]> countMemo) {
+		this.countMemo = countMemo;
+	}
+
+	/**
+	 * @return the count memo, or null.
+	 */
+	public BoundedMemo<String, int[]> getCountMemo() {
+		return countMemo;
+	}
+
+	/**
+	 * @return the annotation layers this extractor reads.
+	 */
+	@Override
+	public EnumSet<AnnotationLayer> getRequiredLayers() {
+		return EnumSet.of(AnnotationLayer.TREES);
+	}
+
+	/**
+	 * Same as getSyntacticComplexityFeatures().
+	 */
+	@Override
+	public TreeMap<String, Double> extract(AnnotatedDocument document) throws Exception {
+		return getSyntacticComplexityFeatures(document.getParsedSentences());
+	}
+
 	/**
 	 * @param args
 	 */
@@ -54,7 +117,9 @@ public class ParseTreeBasedFeatures {
 	}
 
 	/**
-	 * Extracts syntactic complexity features for a text
+	 * Extracts syntactic complexity features for a text. Sentences the parser
+	 * skipped (see SentenceParse.isUnparsed()) count towards SYN_numSentences
+	 * only; all other features are averaged over the parsed sentences.
 	 * 
 	 * @param parsedSentences : List<Tree> object
 	 * @return TreeMap object with feature name as key and its count as value.
@@ -91,71 +156,37 @@ public class ParseTreeBasedFeatures {
 		int AvgVPSize = 0;
 		int AvgPPSize = 0;
 
-		HeadFinder hf = new CollinsHeadFinder();
-
+		int numParsedSentences = 0;
 		for (Tree t : parsedSentences) {
-			// System.out.println(t.toString());
-			avgParseTreeHeight += t.depth();
-			numWords += t.getLeaves().size(); // NumWords in this sentence.
-
-			// Calculate Num. NP, VP, PP and their Average Sizes. Tregex Patterns are not
-			// necessary for this part.
-			List<edu.stanford.nlp.trees.Tree> subtrees = t.subTreeList();
-			numSubtrees += subtrees.size();
-			for (edu.stanford.nlp.trees.Tree st : subtrees) {
-				if (st.isPhrasal() && st.headTerminal(hf) != null) {
-					if (st.label().toString().equals("NP") && st.isPrePreTerminal()) {
-						numNP++;
-						AvgNPSize += st.numChildren();
-					}
-
-					if (st.label().toString().equals("VP")) {
-						numVP++;
-						AvgVPSize += st.numChildren();
-					}
-
-					if (st.label().toString().equals("PP")) {
-						numPP++;
-						AvgPPSize += st.numChildren();
-					}
-
-					if (st.label().toString().equals("WHNP") || st.label().toString().equals("WHPP")
-							|| st.label().toString().equals("WHADVP") || st.label().toString().equals("WHADJP")) {
-						numWhPhrases++;
-					}
-
-					if (st.label().toString().equals("RRC")) {
-						reducedRelClauses++;
-					}
-
-					if (st.label().toString().equals("CONJP")) {
-						numConjPhrases++;
-					}
-				}
-			} // End of for loop iterating through the subtrees inside a given tree.
-
-			// The Tregex Mania begins! For details about these patterns, see Lu-10.
-			numSBAR = numSBAR + countOccurences(t, "SBAR");
-			numClauses = numClauses + countOccurences(t, "S|SBAR|SINV < (VP <# VBD|VBP|VBZ|MD)");
-			numTunits = numTunits
-					+ countOccurences(t, "S|SBARQ|SINV|SQ !> (S|SINV|SBAR|SQ) |> ROOT | [$-- S|SBARQ|SINV|SQ !>> SBAR|VP]");
-			numDependentClauses = numDependentClauses
-					+ countOccurences(t, "SBAR < (S|SINV|SQ < (VP [<# MD|VBP|VBZ|VBD | < (VP <# (MD|VBP|VBZ|VBD))]))");
-			numCoordinateClauses = numCoordinateClauses + countOccurences(t, "ADJP|ADVP|NP|VP<CC");
-			numComplexTunits = numComplexTunits + countOccurences(t,
-					"S|SBARQ|SINV|SQ [> ROOT | [$-- S|SBARQ|SINV|SQ !>> SBAR|VP]] << (SBAR < (S|SINV|SQ < (VP [<# MD|VBP|VBZ|VBD | < (VP <# (MD|VBP|VBZ|VBD))])))");
-			// Three CN patterns.
-			numComplexNominals = numComplexNominals
-					+ countOccurences(t, "NP !> NP [<< JJ|POS|PP|S|VBG | << (NP $++ NP !$+ CC)]");
-			numComplexNominals = numComplexNominals
-					+ countOccurences(t, "SBAR [<# WHNP | <# (IN < That|that|For|for) | <, S] & [$+ VP | > VP]");
-			numComplexNominals = numComplexNominals + countOccurences(t, "S < (VP <# VBG|TO) $+ VP");
-
+			if (SentenceParse.isUnparsed(t)) {
+				continue;
+			}
+			numParsedSentences++;
+			int[] counts = getCounts(t);
+			numSBAR += counts[SBAR];
+			avgParseTreeHeight += counts[HEIGHT];
+			numWords += counts[WORDS];
+			numSubtrees += counts[SUBTREES];
+			numNP += counts[NP];
+			AvgNPSize += counts[NP_SIZE];
+			numVP += counts[VP];
+			AvgVPSize += counts[VP_SIZE];
+			numPP += counts[PP];
+			AvgPPSize += counts[PP_SIZE];
+			numWhPhrases += counts[WH_PHRASES];
+			reducedRelClauses += counts[RRC];
+			numConjPhrases += counts[CONJ_PHRASES];
+			numClauses += counts[CLAUSES];
+			numTunits += counts[TUNITS];
+			numDependentClauses += counts[DEPENDENT_CLAUSES];
+			numCoordinateClauses += counts[COORDINATE_CLAUSES];
+			numComplexTunits += counts[COMPLEX_TUNITS];
+			numComplexNominals += counts[COMPLEX_NOMINALS];
 		} // End of the for loop that finishes iterating through all parsed sentences in
 			// the list.
 
-		Double numSentences = new Double((double) parsedSentences.size());
-		syntacticFeatures.put("SYN_numSentences", numSentences);
+		syntacticFeatures.put("SYN_numSentences", (double) parsedSentences.size());
+		double numSentences = numParsedSentences;
 		// syntacticFeatures.put("numWords", (Double)((double)numWords));
 		syntacticFeatures.put("SYN_avgSentenceLength", NumUtils.restrict2TwoDecimals(numWords / numSentences));
 		syntacticFeatures.put("SYN_MLC", NumUtils.handleDivByZero(numWords, numClauses));
@@ -189,6 +220,83 @@ public class ParseTreeBasedFeatures {
 		return syntacticFeatures;
 	}
 
+	/**
+	 * @param t : a parsed sentence
+	 * @return the counts getSyntacticComplexityFeatures() adds up, indexed by
+	 *         the constants above. Taken from the memo if the same tree was
+	 *         counted before.
+	 * @throws ParseException
+	 */
+	private int[] getCounts(Tree t) throws ParseException {
+		String key = countMemo == null ? null : t.toString();
+		if (key != null) {
+			int[] counts = countMemo.get(key);
+			if (counts != null) {
+				return counts;
+			}
+		}
+		int[] counts = new int[NUM_COUNTS];
+		HeadFinder hf = new CollinsHeadFinder();
+		counts[HEIGHT] = t.depth();
+		counts[WORDS] = t.getLeaves().size(); // NumWords in this sentence.
+
+		// Calculate Num. NP, VP, PP and their Average Sizes. Tregex Patterns are not
+		// necessary for this part.
+		List<edu.stanford.nlp.trees.Tree> subtrees = t.subTreeList();
+		counts[SUBTREES] = subtrees.size();
+		for (edu.stanford.nlp.trees.Tree st : subtrees) {
+			if (st.isPhrasal() && st.headTerminal(hf) != null) {
+				if (st.label().toString().equals("NP") && st.isPrePreTerminal()) {
+					counts[NP]++;
+					counts[NP_SIZE] += st.numChildren();
+				}
+
+				if (st.label().toString().equals("VP")) {
+					counts[VP]++;
+					counts[VP_SIZE] += st.numChildren();
+				}
+
+				if (st.label().toString().equals("PP")) {
+					counts[PP]++;
+					counts[PP_SIZE] += st.numChildren();
+				}
+
+				if (st.label().toString().equals("WHNP") || st.label().toString().equals("WHPP")
+						|| st.label().toString().equals("WHADVP") || st.label().toString().equals("WHADJP")) {
+					counts[WH_PHRASES]++;
+				}
+
+				if (st.label().toString().equals("RRC")) {
+					counts[RRC]++;
+				}
+
+				if (st.label().toString().equals("CONJP")) {
+					counts[CONJ_PHRASES]++;
+				}
+			}
+		} // End of for loop iterating through the subtrees inside a given tree.
+
+		// The Tregex Mania begins! For details about these patterns, see Lu-10.
+		counts[SBAR] = countOccurences(t, "SBAR");
+		counts[CLAUSES] = countOccurences(t, "S|SBAR|SINV < (VP <# VBD|VBP|VBZ|MD)");
+		counts[TUNITS] = countOccurences(t,
+				"S|SBARQ|SINV|SQ !> (S|SINV|SBAR|SQ) |> ROOT | [$-- S|SBARQ|SINV|SQ !>> SBAR|VP]");
+		counts[DEPENDENT_CLAUSES] = countOccurences(t,
+				"SBAR < (S|SINV|SQ < (VP [<# MD|VBP|VBZ|VBD | < (VP <# (MD|VBP|VBZ|VBD))]))");
+		counts[COORDINATE_CLAUSES] = countOccurences(t, "ADJP|ADVP|NP|VP<CC");
+		counts[COMPLEX_TUNITS] = countOccurences(t,
+				"S|SBARQ|SINV|SQ [> ROOT | [$-- S|SBARQ|SINV|SQ !>> SBAR|VP]] << (SBAR < (S|SINV|SQ < (VP [<# MD|VBP|VBZ|VBD | < (VP <# (MD|VBP|VBZ|VBD))])))");
+		// Three CN patterns.
+		counts[COMPLEX_NOMINALS] = countOccurences(t, "NP !> NP [<< JJ|POS|PP|S|VBG | << (NP $++ NP !$+ CC)]");
+		counts[COMPLEX_NOMINALS] += countOccurences(t,
+				"SBAR [<# WHNP | <# (IN < That|that|For|for) | <, S] & [$+ VP | > VP]");
+		counts[COMPLEX_NOMINALS] += countOccurences(t, "S < (VP <# VBG|TO) $+ VP");
+		if (key != null) {
+			countMemo.put(key, counts);
+		}
+		return counts;
+	}
+
 	/**
 	 * Counts the occurences of a given pattern in a tree. Uses a tregexpattern
 	 * matcher.
@@ -3,11 +3,9 @@
  */
 package src.features;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.StringReader;
 import java.util.ArrayList;
-import java.util.Hashtable;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.TreeMap;
 
@@ -16,6 +14,9 @@ import edu.stanford.nlp.ling.TaggedWord;
 import edu.stanford.nlp.process.DocumentPreprocessor;
 import edu.stanford.nlp.tagger.maxent.MaxentTagger;
 
+import src.preprocessing.AnnotatedDocument;
+import src.preprocessing.AnnotationLayer;
+import src.preprocessing.TokenTable;
 import src.utils.genutils.*;
 
 /**
@@ -27,17 +28,31 @@ import src.utils.genutils.*;
  *         This does not even require a POS tag. I wonder why I was using a POS
  *         tagged version all the while!
  */
-public class PsycholingFeatures {
+public class PsycholingFeatures implements FeatureExtractor {
 
 	/**
-	 * 
+	 * AoA and MRC values, loaded once and shared by all instances.
 	 */
-	private static Hashtable<String, String> aoaDb = new Hashtable<String, String>(100000);
-	private static Hashtable<String, String> mrcdb = new Hashtable<String, String>(200000);
+	private final PsycholingLexicon lexicon;
 
 	public PsycholingFeatures() throws Exception {
+		lexicon = PsycholingLexicon.getShared(); // Loads the databases on first use
+	}
+
+	/**
+	 * @return the annotation layers this extractor reads.
+	 */
+	@Override
+	public EnumSet<AnnotationLayer> getRequiredLayers() {
+		return EnumSet.of(AnnotationLayer.TOKENS);
+	}
 
-		init(); // Loads the
+	/**
+	 * Same as getPsycholingFeatures().
+	 */
+	@Override
+	public TreeMap<String, Double> extract(AnnotatedDocument document) throws Exception {
+		return getPsycholingFeatures(document.getTokenTable());
 	}
 
 	/**
@@ -73,6 +88,18 @@ public class PsycholingFeatures {
 	 * @throws Exception
 	 */
 	public TreeMap<String, Double> getPsycholingFeatures(List<List<TaggedWord>> taggedSentences) throws Exception {
+		return getPsycholingFeatures(TokenTable.of(taggedSentences));
+	}
+
+	/**
+	 * Same as above, on the token table of a text. Words are looked up
+	 * lowercased.
+	 * 
+	 * @param tokens - the tokens of the text
+	 * @return TreeMap object containing the feature names and values.
+	 * @throws Exception
+	 */
+	public TreeMap<String, Double> getPsycholingFeatures(TokenTable tokens) throws Exception {
 		TreeMap<String, Double> psycholingFeatures = new TreeMap<String, Double>();
 		// Declare all the necessary number variables:
 		// From Aoa: AoA_Kup,AoA_kup_Lem,AoA_Bird_Lem,AoA_Bristol_Lem,AoA_Cort_Lem
@@ -96,43 +123,38 @@ public class PsycholingFeatures {
 		int numAoAwords = 0;
 		int numMrcWords = 0;
 
-		for (List<TaggedWord> taggedSentence : taggedSentences) {
-			for (TaggedWord wordTagPair : taggedSentence) {
-				String word = wordTagPair.word();
-				if (aoaDb.containsKey(word.toLowerCase())) {
-					numAoAwords++;
-					String[] variousaoavalues = aoaDb.get(word.toLowerCase()).toString().replaceAll("none", "0")
-							.replaceAll("NA", "0").split(",");
-
-					AoA_Kup += Double.parseDouble(variousaoavalues[0]);
-					AoA_Kup_Lem += Double.parseDouble(variousaoavalues[1]);
-					AoA_Bird_Lem += Double.parseDouble(variousaoavalues[2]);
-					AoA_Bristol_Lem += Double.parseDouble(variousaoavalues[3]);
-					AoA_Cort_Lem += Double.parseDouble(variousaoavalues[4]);
-				}
-				// familiarity,concreteness,imagery,colorado meaningfulness,pavio
-				// meaningfulness,AoA
-				if (mrcdb.containsKey(word.toLowerCase())) {
-					numMrcWords++;
-					String[] variousmrcvalues = mrcdb.get(word.toLowerCase()).toString().replaceAll("none", "0")
-							.replaceAll("NA", "0").split(",");
-
-					/*
-					 * I am not sure what the denominator should be. Previously (in the thesis
-					 * version), it was 7, because they mentioned in a documentation that its on a
-					 * scale of 1 to 7. But there are actually quite large values. So, I am now
-					 * dividing everything by 100 - Sowmya.
-					 */
-					MrcFam += Double.parseDouble(variousmrcvalues[0]) / 100;
-					MrcConc += Double.parseDouble(variousmrcvalues[1]) / 100;
-					MrcImag += Double.parseDouble(variousmrcvalues[2]) / 100;
-					MrcColMean += Double.parseDouble(variousmrcvalues[3]) / 100;
-					MrcPavioMean += Double.parseDouble(variousmrcvalues[4]) / 100;
-					MrcAoA += Double.parseDouble(variousmrcvalues[5]) / 100;
-
-				}
-			} // End of the for loop for all words in a sentence
-		} // End of the for loop for all sentences in the text.
+		for (int i = 0; i < tokens.size(); i++) {
+			int word = tokens.getLowercase(i);
+			int aoaRow = lexicon.getAoARow(word);
+			if (aoaRow >= 0) {
+				numAoAwords++;
+				AoA_Kup += lexicon.getAoA(aoaRow, PsycholingLexicon.AOA_KUP);
+				AoA_Kup_Lem += lexicon.getAoA(aoaRow, PsycholingLexicon.AOA_KUP_LEM);
+				AoA_Bird_Lem += lexicon.getAoA(aoaRow, PsycholingLexicon.AOA_BIRD_LEM);
+				AoA_Bristol_Lem += lexicon.getAoA(aoaRow, PsycholingLexicon.AOA_BRISTOL_LEM);
+				AoA_Cort_Lem += lexicon.getAoA(aoaRow, PsycholingLexicon.AOA_CORT_LEM);
+			}
+			// familiarity,concreteness,imagery,colorado meaningfulness,pavio
+			// meaningfulness,AoA
+			int mrcRow = lexicon.getMRCRow(word);
+			if (mrcRow >= 0) {
+				numMrcWords++;
+
+				/*
+				 * I am not sure what the denominator should be. Previously (in the thesis
+				 * version), it was 7, because they mentioned in a documentation that its on a
+				 * scale of 1 to 7. But there are actually quite large values. So, I am now
+				 * dividing everything by 100 - Sowmya.
+				 */
+				MrcFam += lexicon.getMRC(mrcRow, PsycholingLexicon.MRC_FAMILIARITY) / 100;
+				MrcConc += lexicon.getMRC(mrcRow, PsycholingLexicon.MRC_CONCRETENESS) / 100;
+				MrcImag += lexicon.getMRC(mrcRow, PsycholingLexicon.MRC_IMAGERY) / 100;
+				MrcColMean += lexicon.getMRC(mrcRow, PsycholingLexicon.MRC_COLORADO_MEANINGFULNESS) / 100;
+				MrcPavioMean += lexicon.getMRC(mrcRow, PsycholingLexicon.MRC_PAVIO_MEANINGFULNESS) / 100;
+				MrcAoA += lexicon.getMRC(mrcRow, PsycholingLexicon.MRC_AOA) / 100;
+
+			}
+		} // End of the for loop for all words in the text.
 
 		psycholingFeatures.put("AoA_Kup", NumUtils.restrict2TwoDecimals((double) AoA_Kup / numAoAwords));
 		psycholingFeatures.put("AoA_Kup_Lem", NumUtils.restrict2TwoDecimals((double) AoA_Kup_Lem / numAoAwords));
@@ -151,55 +173,4 @@ public class PsycholingFeatures {
 		return psycholingFeatures;
 	}
 
-	/**
-	 * Method to load AoA and MRC databases.
-	 * 
-	 * @throws Exception
-	 */
-	private static void init() throws Exception {
-		String aoa50Kpath = "resources/AoA_51715_words_copy.csv";
-		String mrcfilepath = "resources/mrcdictfull_copy.csv";
-
-		BufferedReader br = new BufferedReader(new FileReader(aoa50Kpath));
-		br.readLine(); // To read the header.
-
-		// Load the AoA database
-		String dummy = "";
-		while ((dummy = br.readLine()) != null) {
-			try {
-				String[] pair = dummy.split(",");
-				String key = pair[0];
-				String value = pair[8] + "," + pair[10] + "," + pair[12] + "," + pair[13] + "," + pair[14]; // +","+pair[15];
-				aoaDb.put(key, value); // End value string: "word":
-																// AoA_Kup,AoA_kup_Lem,AoA_Bird_Lem,AoA_Bristol_Lem,AoA_Cort_Lem,
-			} catch (Exception e) {
-				System.out.println("Something is wrong with your AoA database format. Exiting. " + e.toString());
-				System.exit(1);
-			}
-		}
-		br.close();
-
-		// Load MRC Psycholinguistic Database
-		br = new BufferedReader(new FileReader(mrcfilepath));
-		while ((dummy = br.readLine()) != null) {
-			try {
-				String[] pair = dummy.split(",");
-				String key = pair[22].toLowerCase();
-				String value = pair[8] + "," + pair[9] + "," + pair[10] + "," + pair[11] + "," + pair[12] + "," + pair[13];
-				if (!mrcdb.containsKey(key)) {
-					mrcdb.put(key, value); // End value string: familiarity,concreteness,imagery,colorado
-																	// meaningfulness,pavio meaningfulness,AoA
-
-				}
-			} catch (Exception e) {
-				System.out.println("Something is wrong with your MRC database format. Exiting. " + e.toString());
-				System.exit(1);
-			}
-		}
-		br.close();
-
-		System.out.println(aoaDb.size() + "...AoA DB size");
-		System.out.println(mrcdb.size() + "....MRD Db size");
-	}
-
 }
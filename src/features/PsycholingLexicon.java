@@ -0,0 +1,227 @@
+/**
+ *
+ */
+package src.features;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.util.LinkedHashMap;
+
+import src.preprocessing.Vocabulary;
+
+/**
+ * The Kuperman et.al. (2012) AoA norms and the MRC psycholinguistic database,
+ * loaded once per JVM and never changed, so any number of threads can read them
+ * without locking. Values are parsed when the files are loaded and kept as
+ * double columns of a LexiconSnapshot, one row per word; "none" and "NA" are
+ * kept as 0 and marked as missing. The snapshot is the compiled one at
+ * LexiconSnapshot.DEFAULT_PATH if there is one, else it is compiled in memory
+ * from the CSV files. Rows are found by the Vocabulary id of a word, with an
+ * array read.
+ *
+ * AoA words are looked up as they are in the file (so only the lowercase ones
+ * can match a lowercased token), and the last row of a word counts. MRC words
+ * are lowercased, and the first row of a word counts.
+ *
+ * @author svajjala
+ */
+public class PsycholingLexicon {
+
+	public static final String AOA_PATH = "resources/AoA_51715_words_copy.csv";
+	public static final String MRC_PATH = "resources/mrcdictfull_copy.csv";
+
+	// AoA columns: AoA_Kup,AoA_kup_Lem,AoA_Bird_Lem,AoA_Bristol_Lem,AoA_Cort_Lem
+	public static final int AOA_KUP = 0;
+	public static final int AOA_KUP_LEM = 1;
+	public static final int AOA_BIRD_LEM = 2;
+	public static final int AOA_BRISTOL_LEM = 3;
+	public static final int AOA_CORT_LEM = 4;
+	public static final int NUM_AOA_COLUMNS = 5;
+
+	// MRC columns: familiarity,concreteness,imagery,colorado meaningfulness,pavio
+	// meaningfulness,AoA
+	public static final int MRC_FAMILIARITY = 0;
+	public static final int MRC_CONCRETENESS = 1;
+	public static final int MRC_IMAGERY = 2;
+	public static final int MRC_COLORADO_MEANINGFULNESS = 3;
+	public static final int MRC_PAVIO_MEANINGFULNESS = 4;
+	public static final int MRC_AOA = 5;
+	public static final int NUM_MRC_COLUMNS = 6;
+
+	private static PsycholingLexicon shared;
+
+	private final LexiconSnapshot.Table aoa;
+	private final LexiconSnapshot.Table mrc;
+	private final int[] aoaRows;
+	private final int[] mrcRows;
+
+	/**
+	 * @param vocabulary : vocabulary giving the word ids
+	 * @param snapshot   : a snapshot with AoA and MRC tables
+	 * @throws Exception if the snapshot lacks either of them
+	 */
+	public PsycholingLexicon(Vocabulary vocabulary, LexiconSnapshot snapshot) throws Exception {
+		aoa = snapshot.getTable(LexiconSnapshot.AOA);
+		mrc = snapshot.getTable(LexiconSnapshot.MRC);
+		if (aoa == null || mrc == null) {
+			throw new Exception("The lexicon snapshot has no AoA or MRC table");
+		}
+		aoaRows = aoa.getRowsByWordId(vocabulary);
+		mrcRows = mrc.getRowsByWordId(vocabulary);
+	}
+
+	/**
+	 * @return the lexicon of the shared lexicon snapshot if it has the AoA and
+	 *         MRC tables, else of the default files, on the shared vocabulary.
+	 *         Loaded on first use.
+	 * @throws Exception
+	 */
+	public static synchronized PsycholingLexicon getShared() throws Exception {
+		if (shared == null) {
+			LexiconSnapshot snapshot = LexiconSnapshot.getShared();
+			if (snapshot != null && snapshot.hasTable(LexiconSnapshot.AOA) && snapshot.hasTable(LexiconSnapshot.MRC)) {
+				shared = new PsycholingLexicon(Vocabulary.getShared(), snapshot);
+			} else {
+				shared = load(AOA_PATH, MRC_PATH, Vocabulary.getShared());
+			}
+		}
+		return shared;
+	}
+
+	/**
+	 * Loads the AoA and MRC databases from their CSV files. Exits if either of
+	 * them is malformed.
+	 *
+	 * @throws Exception
+	 */
+	public static PsycholingLexicon load(String aoaPath, String mrcPath, Vocabulary vocabulary) throws Exception {
+		LexiconSnapshotCompiler compiler = new LexiconSnapshotCompiler();
+		LinkedHashMap<String, String[]> aoaWords = readAoA(aoaPath);
+		LinkedHashMap<String, String[]> mrcWords = readMRC(mrcPath);
+		compiler.addTable(LexiconSnapshot.AOA, NUM_AOA_COLUMNS, aoaWords);
+		compiler.addTable(LexiconSnapshot.MRC, NUM_MRC_COLUMNS, mrcWords);
+		System.out.println(aoaWords.size() + "...AoA DB size");
+		System.out.println(mrcWords.size() + "....MRD Db size");
+		return new PsycholingLexicon(vocabulary, new LexiconSnapshot(compiler.compile()));
+	}
+
+	/**
+	 * Reads the AoA database: for each word, its AoA_Kup, AoA_kup_Lem,
+	 * AoA_Bird_Lem, AoA_Bristol_Lem and AoA_Cort_Lem. Exits if it is malformed.
+	 *
+	 * @throws Exception
+	 */
+	static LinkedHashMap<String, String[]> readAoA(String aoaPath) throws Exception {
+		LinkedHashMap<String, String[]> aoaWords = new LinkedHashMap<String, String[]>(100000);
+		BufferedReader br = new BufferedReader(new FileReader(aoaPath));
+		br.readLine(); // To read the header.
+
+		// Load the AoA database
+		String dummy = "";
+		while ((dummy = br.readLine()) != null) {
+			try {
+				String[] pair = dummy.split(",");
+				String key = pair[0];
+				String value = pair[8] + "," + pair[10] + "," + pair[12] + "," + pair[13] + "," + pair[14];
+				aoaWords.put(key, parseValues(value, NUM_AOA_COLUMNS));
+			} catch (Exception e) {
+				System.out.println("Something is wrong with your AoA database format. Exiting. " + e.toString());
+				System.exit(1);
+			}
+		}
+		br.close();
+		return aoaWords;
+	}
+
+	/**
+	 * Reads the MRC Psycholinguistic Database: for each lowercased word, its
+	 * familiarity, concreteness, imagery, colorado meaningfulness, pavio
+	 * meaningfulness and AoA. Exits if it is malformed.
+	 *
+	 * @throws Exception
+	 */
+	static LinkedHashMap<String, String[]> readMRC(String mrcPath) throws Exception {
+		LinkedHashMap<String, String[]> mrcWords = new LinkedHashMap<String, String[]>(200000);
+		BufferedReader br = new BufferedReader(new FileReader(mrcPath));
+		String dummy = "";
+		while ((dummy = br.readLine()) != null) {
+			try {
+				String[] pair = dummy.split(",");
+				String key = pair[22].toLowerCase();
+				String value = pair[8] + "," + pair[9] + "," + pair[10] + "," + pair[11] + "," + pair[12] + "," + pair[13];
+				if (!mrcWords.containsKey(key)) {
+					mrcWords.put(key, parseValues(value, NUM_MRC_COLUMNS));
+				}
+			} catch (Exception e) {
+				System.out.println("Something is wrong with your MRC database format. Exiting. " + e.toString());
+				System.exit(1);
+			}
+		}
+		br.close();
+		return mrcWords;
+	}
+
+	/**
+	 * Splits the comma separated values of a word, and checks that they are
+	 * numbers or "none"/"NA".
+	 *
+	 * @throws NumberFormatException if not
+	 */
+	static String[] parseValues(String value, int numColumns) {
+		String[] values = value.split(",");
+		if (values.length != numColumns) {
+			throw new NumberFormatException("Expected " + numColumns + " values: " + value);
+		}
+		for (String v : values) {
+			Double.parseDouble(v.replaceAll("none", "0").replaceAll("NA", "0"));
+		}
+		return values;
+	}
+
+	/**
+	 * @param wordId : vocabulary id of a word
+	 * @return its AoA row, or -1.
+	 */
+	public int getAoARow(int wordId) {
+		return wordId < aoaRows.length ? aoaRows[wordId] : -1;
+	}
+
+	/**
+	 * @return an AoA value, 0 if missing.
+	 */
+	public double getAoA(int row, int column) {
+		return aoa.getValue(row, column);
+	}
+
+	public boolean isAoAMissing(int row, int column) {
+		return aoa.isMissing(row, column);
+	}
+
+	/**
+	 * @param wordId : vocabulary id of a word
+	 * @return its MRC row, or -1.
+	 */
+	public int getMRCRow(int wordId) {
+		return wordId < mrcRows.length ? mrcRows[wordId] : -1;
+	}
+
+	/**
+	 * @return an MRC value as in the database (not scaled), 0 if missing.
+	 */
+	public double getMRC(int row, int column) {
+		return mrc.getValue(row, column);
+	}
+
+	public boolean isMRCMissing(int row, int column) {
+		return mrc.isMissing(row, column);
+	}
+
+	public int getNumAoAWords() {
+		return aoa.getNumRows();
+	}
+
+	public int getNumMRCWords() {
+		return mrc.getNumRows();
+	}
+
+}
@@ -3,9 +3,12 @@
  */
 package src.features;
 
+import java.util.EnumSet;
 import java.util.TreeMap;
 
 import src.features.trad.Readability;
+import src.preprocessing.AnnotatedDocument;
+import src.preprocessing.AnnotationLayer;
 import src.utils.genutils.NumUtils;
 
 /**
@@ -14,12 +17,28 @@ import src.utils.genutils.NumUtils;
  * @author svajjala Uses Phantom Library, written by Niels Ott and Laura
  *         Kassner. exist only in UIMA versions.
  */
-public class TraditionalFeatures {
+public class TraditionalFeatures implements FeatureExtractor {
 
 	public TraditionalFeatures() {
 
 	}
 
+	/**
+	 * @return the annotation layers this extractor reads (works on the raw text).
+	 */
+	@Override
+	public EnumSet<AnnotationLayer> getRequiredLayers() {
+		return EnumSet.noneOf(AnnotationLayer.class);
+	}
+
+	/**
+	 * Same as getTraditionalFeatures().
+	 */
+	@Override
+	public TreeMap<String, Double> extract(AnnotatedDocument document) throws Exception {
+		return getTraditionalFeatures(document.getContent());
+	}
+
 	/**
 	 * @param args
 	 */
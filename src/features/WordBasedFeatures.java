@@ -4,23 +4,42 @@
 package src.features;
 
 import java.util.ArrayList;
-import java.util.List;
+import java.util.EnumSet;
 import java.util.TreeMap;
 
+import src.preprocessing.AnnotatedDocument;
+import src.preprocessing.AnnotationLayer;
+import src.preprocessing.TokenTable;
 import src.utils.genutils.NumUtils;
 
 /**
  * Extracts features based on only words (e.g., TTRs, Frequency based features
- * etc.,) Uses Julia Hancke's code for MTLD.
+ * etc.,) Uses Julia Hancke's code for MTLD (see LexicalDiversity).
  * 
  * @author svajjala
  */
-public class WordBasedFeatures {
+public class WordBasedFeatures implements FeatureExtractor {
 
 	public WordBasedFeatures() {
 
 	}
 
+	/**
+	 * @return the annotation layers this extractor reads.
+	 */
+	@Override
+	public EnumSet<AnnotationLayer> getRequiredLayers() {
+		return EnumSet.of(AnnotationLayer.TOKENS);
+	}
+
+	/**
+	 * Same as getWordBasedFeatures().
+	 */
+	@Override
+	public TreeMap<String, Double> extract(AnnotatedDocument document) throws Exception {
+		return getWordBasedFeatures(document.getTokenTable());
+	}
+
 	/**
 	 * @param args
 	 */
@@ -37,115 +56,36 @@ public class WordBasedFeatures {
 	 * @throws Exception
 	 */
 	public TreeMap<String, Double> getWordBasedFeatures(ArrayList<String> tokenizedSentences) throws Exception {
-		TreeMap<String, Double> wordBasedFeatures = new TreeMap<String, Double>();
-
-		ArrayList<String> types = new ArrayList<String>();
-		ArrayList<String> tokens = new ArrayList<String>();
-		int numTokens = 0;
-		for (String sentence : tokenizedSentences) {
-			String[] wordsInSentence = sentence.split(" ");
-			for (String word : wordsInSentence) {
-				numTokens++;
-				if (!types.contains(word.toLowerCase())) {
-					types.add(word.toLowerCase());
-				}
-				tokens.add(word.toLowerCase());
-			}
-		} // All sentences iterated.
-
-		double numTypes = (double) types.size();
-		wordBasedFeatures.put("Word_TTR", NumUtils.handleDivByZero(numTypes, numTokens));
-		wordBasedFeatures.put("Word_CTTR", NumUtils.handleDivByZero(numTypes, Math.sqrt(2.0 * numTokens)));
-		wordBasedFeatures.put("Word_RTTR", NumUtils.handleDivByZero(numTypes, Math.sqrt(numTokens)));
-		wordBasedFeatures.put("Word_BilogTTR", NumUtils.handleDivByZero(Math.log(numTypes), Math.log(numTokens)));
-		wordBasedFeatures.put("Word_UberIndex",
-				NumUtils.handleDivByZero(Math.pow(Math.log(numTokens), 2), Math.log(numTokens / numTypes)));
-		wordBasedFeatures.put("Word_MTLD", NumUtils.restrict2TwoDecimals(getMTLD(tokens)));
-
-		return wordBasedFeatures;
+		return getWordBasedFeatures(TokenTable.ofTokenizedSentences(tokenizedSentences));
 	}
 
 	/**
-	 * This uses Julia Hancke's version of MTLD with minimal changes.
+	 * Same as above, on the token table of a text. Tokens are compared lowercased.
 	 * 
 	 * @param tokens
 	 * @return
 	 * @throws Exception
 	 */
-	private static Double getMTLD(ArrayList<String> tokens) throws Exception {
-		List<String> types = new ArrayList<String>();
-		double factors = 0;
-		double ttrThreshold = 0.72;
-		int startIndex = 0;
-		double ttr = 1;
-		// go over the text and get ttr to get the number of factors
-		for (int i = 0; i < tokens.size(); i++) {
-			String currentToken = tokens.get(i);
-			// each time a new type is found, compute type token ratio
-			if (!types.contains(currentToken.toLowerCase())) {
-				types.add(currentToken.toLowerCase());
-			}
-			ttr = types.size() / (i + 1 - startIndex);
-			if (ttr < 0.72) {
-				/*
-				 * cut text (those portions are called factor) and reset list of types
-				 */
-				startIndex = i + 1;
-				types.clear();
-				// keep count of factors
-				factors += 1;
-			}
-			/*
-			 * if it is the last word and the ttr threshold is not reached, calculate the
-			 * rest factor
-			 */
-			else if (ttr > ttrThreshold && i == tokens.size() - 1) {
-				factors += (1 - ttr) / (1 - 0.72);
-			}
-
-		} // repeat until all tokens are finished.
-
-		// form MTLD score: #tokens /#factors
-		double mtld1 = tokens.size() / factors;
-
-		// repeat same starting at the end of the text
-		factors = 0;
-		startIndex = tokens.size() - 1;
-		ttr = 1;
-		types.clear();
-		for (int i = tokens.size() - 1; i >= 0; i--) {
-			String currentToken = tokens.get(i);
-			// each time a new type is found, compute type token ratio
-			if (!types.contains(currentToken.toLowerCase())) {
-				types.add(currentToken.toLowerCase());
-			}
-			// System.out.println("tokens covered " + (startIndex-i+1));
-			ttr = types.size() / startIndex - i + 1;
+	public TreeMap<String, Double> getWordBasedFeatures(TokenTable tokens) throws Exception {
+		TreeMap<String, Double> wordBasedFeatures = new TreeMap<String, Double>();
+		LexicalDiversity diversity = new LexicalDiversity(tokens.getLowercaseTypes(), tokens.getNumLowercaseTypes());
 
-			// when ttr reaches threshold
-			if (ttr < ttrThreshold) {
-				/* cut text (those portions are called factor) and reset list of types */
-				startIndex = i - 1;
-				types.clear();
-				factors += 1;
-			}
-			/*
-			 * if it is the last word and the ttr threshold is not reached calculate the
-			 * rest factor
-			 */
-			else if (ttr > ttrThreshold && i == 0) {
-				factors += (1 - ttr) / (1 - 0.72);
-			}
-		} // repeat until not tokens left
+		int numTokens = diversity.getNumTokens();
+		double numTypes = (double) diversity.getNumTypes();
+		wordBasedFeatures.put("Word_TTR", NumUtils.handleDivByZero(numTypes, numTokens));
+		wordBasedFeatures.put("Word_CTTR", NumUtils.handleDivByZero(numTypes, Math.sqrt(2.0 * numTokens)));
+		wordBasedFeatures.put("Word_RTTR", NumUtils.handleDivByZero(numTypes, Math.sqrt(numTokens)));
+		wordBasedFeatures.put("Word_BilogTTR", NumUtils.handleDivByZero(Math.log(numTypes), Math.log(numTokens)));
+		wordBasedFeatures.put("Word_UberIndex",
+				NumUtils.handleDivByZero(Math.pow(Math.log(numTokens), 2), Math.log(numTokens / numTypes)));
+		wordBasedFeatures.put("Word_MTLD", NumUtils.restrict2TwoDecimals(diversity.getHanckeMTLD()));
+		wordBasedFeatures.put("Word_MTLDForward", NumUtils.restrict2TwoDecimals(diversity.getMTLD(true)));
+		wordBasedFeatures.put("Word_MTLDBackward", NumUtils.restrict2TwoDecimals(diversity.getMTLD(false)));
+		wordBasedFeatures.put("Word_MATTR",
+				NumUtils.restrict2TwoDecimals(diversity.getMATTR(LexicalDiversity.MATTR_WINDOW)));
+		wordBasedFeatures.put("Word_HDD", NumUtils.restrict2TwoDecimals(diversity.getHDD(LexicalDiversity.HDD_SAMPLE)));
 
-		double mtld2 = tokens.size() / factors;
-		double res = (mtld1 + mtld2) / 2;
-		Double resD = (Double) res;
-		// take the mean of both forward and backward score
-		if (!resD.isInfinite())
-			return res;
-		else
-			return 0.0;
+		return wordBasedFeatures;
 	}
 
 }
@@ -6,6 +6,7 @@ package src.features;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.TreeMap;
 
@@ -20,6 +21,10 @@ import edu.mit.jwi.item.Pointer;
 import edu.mit.jwi.morph.WordnetStemmer;
 import edu.stanford.nlp.ling.TaggedWord;
 
+import src.preprocessing.AnnotatedDocument;
+import src.preprocessing.AnnotationLayer;
+import src.preprocessing.TokenTable;
+import src.preprocessing.Vocabulary;
 import src.utils.genutils.*;
 
 /**
@@ -31,7 +36,7 @@ import src.utils.genutils.*;
  *         add more, one can look at the documentation about the API:
  *         http://projects.csail.mit.edu/jwi/download.php?f=edu.mit.jwi_2.3.3_manual.pdf
  */
-public class WordNetBasedFeatures {
+public class WordNetBasedFeatures implements FeatureExtractor {
 
 	// Variables for WN
 	public static URL wnpath = null;
@@ -43,6 +48,22 @@ public class WordNetBasedFeatures {
 		init();
 	}
 
+	/**
+	 * @return the annotation layers this extractor reads.
+	 */
+	@Override
+	public EnumSet<AnnotationLayer> getRequiredLayers() {
+		return EnumSet.of(AnnotationLayer.TAGS);
+	}
+
+	/**
+	 * Same as getWNFeatures().
+	 */
+	@Override
+	public TreeMap<String, Double> extract(AnnotatedDocument document) throws Exception {
+		return getWNFeatures(document.getTaggedTokenTable());
+	}
+
 	/**
 	 * @param args
 	 */
@@ -58,38 +79,52 @@ public class WordNetBasedFeatures {
 	 * @throws Exception
 	 */
 	public TreeMap<String, Double> getWNFeatures(List<List<TaggedWord>> taggedSentences) throws Exception {
+		return getWNFeatures(TokenTable.of(taggedSentences));
+	}
+
+	/**
+	 * Same as above, on the tagged token table of a text. Lemmas are found once
+	 * per word and tag, and kept in the vocabulary.
+	 * 
+	 * @param tokens - the tagged tokens of the text
+	 * @return TreeMap object containing features and their values.
+	 * @throws Exception
+	 */
+	public TreeMap<String, Double> getWNFeatures(TokenTable tokens) throws Exception {
 		TreeMap<String, Double> wnfeatures = new TreeMap<String, Double>();
 		int numSenses = 0;
 		int wordsforwhichsensesarecounted = 0;
 		int numHypernyms = 0;
 		int numHyponyms = 0;
-		for (List<TaggedWord> sentence : taggedSentences) {
-			for (TaggedWord wordtag : sentence) {
-				String word = wordtag.word().toLowerCase();
-				String tag = wordtag.tag();
-				String generaltag = getGeneralTag(tag);
-				if (!generaltag.equals("NONE")) {
-					try {
-						String lemma = stemmer.findStems(word, POS.valueOf(generaltag)).get(0);
-						if (!auxVerbs.contains(lemma) && !generaltag.equals("PROPERNOUN")) // Calculate no. of senses only if the
-																																								// word is not an aux. verb.
-						{
-							IIndexWord idxWord = dict.getIndexWord(lemma, POS.valueOf(generaltag));
-							numSenses += idxWord.getWordIDs().size(); // Senses of a word.
-
-							// Getting hypernyms:
-							IWordID wordID = idxWord.getWordIDs().get(0); // 1st meaning of the idXWord.
-							IWord iword = dict.getWord(wordID);
-							ISynset synset = iword.getSynset();
-							numHypernyms = synset.getRelatedSynsets(Pointer.HYPERNYM).size();
-							numHyponyms = synset.getRelatedSynsets(Pointer.HYPONYM).size();
-							wordsforwhichsensesarecounted++;
-						}
-					} catch (Exception wnException) {
-						// System.out.println("Error while handling Wordnet: " +
-						// wnException.toString());
-						// continue;
+		Vocabulary vocabulary = tokens.getVocabulary();
+		for (int i = 0; i < tokens.size(); i++) {
+			String tag = vocabulary.getForm(tokens.getTag(i));
+			String generaltag = getGeneralTag(tag);
+			if (!generaltag.equals("NONE")) {
+				try {
+					int lemmaId = tokens.getLemma(i);
+					if (lemmaId == Vocabulary.NO_LEMMA) {
+						continue;
+					}
+					String lemma = vocabulary.getForm(lemmaId);
+					if (!auxVerbs.contains(lemma) && !generaltag.equals("PROPERNOUN")) // Calculate no. of senses only if the
+																																							// word is not an aux. verb.
+					{
+						IIndexWord idxWord = dict.getIndexWord(lemma, POS.valueOf(generaltag));
+						numSenses += idxWord.getWordIDs().size(); // Senses of a word.
+
+						// Getting hypernyms:
+						IWordID wordID = idxWord.getWordIDs().get(0); // 1st meaning of the idXWord.
+						IWord iword = dict.getWord(wordID);
+						ISynset synset = iword.getSynset();
+						numHypernyms = synset.getRelatedSynsets(Pointer.HYPERNYM).size();
+						numHyponyms = synset.getRelatedSynsets(Pointer.HYPONYM).size();
+						wordsforwhichsensesarecounted++;
 					}
+				} catch (Exception wnException) {
+					// System.out.println("Error while handling Wordnet: " +
+					// wnException.toString());
+					// continue;
 				}
 			}
 		}
@@ -111,6 +146,8 @@ public class WordNetBasedFeatures {
 		dict = new Dictionary(wnpath);
 		dict.open();
 		stemmer = new WordnetStemmer(dict);
+		Vocabulary.getShared().setLemmatizer(
+				(word, tag) -> stemmer.findStems(word, POS.valueOf(getGeneralTag(tag))).get(0));
 		// Populating the list of Auxiliary verbs, for Wordnet related stuff.
 		String[] auxverbslist = { "be", "can", "could", "do", "have", "may", "might", "must", "shall", "should", "will",
 				"would" };
@@ -9,6 +9,9 @@ import java.util.ArrayList;
 import java.util.Map;
 import java.util.TreeMap;
 
+import src.preprocessing.TokenTable;
+import src.preprocessing.Vocabulary;
+
 /**
  * Extracts features based on specific wordlists (plan: add Dale-Chall, Academic
  * Wordlist, GSL list, LFP, subtlex, and Brooke's list) Right now, I am adding
@@ -19,7 +22,12 @@ import java.util.TreeMap;
  */
 public class WordlistsBasedFeatures {
 
-	private static Map<String, Double> subtlexUS = new TreeMap<String, Double>();
+	public static final String SUBTLEX_US_PATH = "resources/SUBTLexUS.txt";
+
+	// SubtlexLog10WF of the words, from the shared lexicon snapshot if it has
+	// them, else read from SUBTLEX_US_PATH; rows by Vocabulary id.
+	private static LexiconSnapshot.Table subtlexUS;
+	private static int[] subtlexUSRows;
 
 	public WordlistsBasedFeatures() {
 
@@ -33,17 +41,31 @@ public class WordlistsBasedFeatures {
 	}
 
 	public TreeMap<String, Double> getWordListsBasedFeatures(ArrayList<String> tokenizedSentences) throws Exception {
+		init(); // Before the table, so that its SUBTLEXus words have their shared ids.
+		return getWordListsBasedFeatures(TokenTable.ofTokenizedSentences(tokenizedSentences));
+	}
+
+	/**
+	 * Same as above, on the token table of a text. The list is loaded on first
+	 * use; words of a table made before that have ids of its own vocabulary
+	 * scope, and are looked up by their form.
+	 */
+	public TreeMap<String, Double> getWordListsBasedFeatures(TokenTable tokens) throws Exception {
+		init();
 		TreeMap<String, Double> wordlistBasedFeatures = new TreeMap<String, Double>();
 		int subtlexTokens = 0; // Number of words in the text that are in Subtlex
 		double subtlexAvgFreq = 0; // Average subtlex frequency of the words in the text. Stores sum until the end
-		for (String sentence : tokenizedSentences) {
-
-			String[] wordsInSentence = sentence.split(" ");
-			for (String word : wordsInSentence) {
-				if (subtlexUS.containsKey(word)) {
-					subtlexTokens++;
-					subtlexAvgFreq += subtlexUS.get(word);
-				}
+		for (int i = 0; i < tokens.size(); i++) {
+			int word = tokens.getForm(i);
+			int row;
+			if (word < subtlexUSRows.length) {
+				row = subtlexUSRows[word];
+			} else {
+				row = word >= Vocabulary.SCOPE_BASE ? subtlexUS.findRow(tokens.getVocabulary().getForm(word)) : -1;
+			}
+			if (row >= 0) {
+				subtlexTokens++;
+				subtlexAvgFreq += subtlexUS.getValue(row, 0);
 			}
 		}
 
@@ -52,6 +74,26 @@ public class WordlistsBasedFeatures {
 		return wordlistBasedFeatures;
 	}
 
+	/**
+	 * Sets up the SUBTLEXus frequencies on first use: from the shared lexicon
+	 * snapshot if it has them, else from SUBTLEX_US_PATH.
+	 * 
+	 * @throws Exception
+	 */
+	private static synchronized void init() throws Exception {
+		if (subtlexUS != null) {
+			return;
+		}
+		LexiconSnapshot snapshot = LexiconSnapshot.getShared();
+		if (snapshot == null || !snapshot.hasTable(LexiconSnapshot.SUBTLEX_US)) {
+			LexiconSnapshotCompiler compiler = new LexiconSnapshotCompiler();
+			compiler.addValues(LexiconSnapshot.SUBTLEX_US, readSubtlexUSList(SUBTLEX_US_PATH));
+			snapshot = new LexiconSnapshot(compiler.compile());
+		}
+		subtlexUSRows = snapshot.getTable(LexiconSnapshot.SUBTLEX_US).getRowsByWordId(Vocabulary.getShared());
+		subtlexUS = snapshot.getTable(LexiconSnapshot.SUBTLEX_US);
+	}
+
 	/**
 	 * Loads the new Dale-Chall list from file. Saves words in an ArrayList
 	 * 
@@ -71,13 +113,15 @@ public class WordlistsBasedFeatures {
 	}
 
 	/**
-	 * Loads the SUBTLexUS list from file. Saves words in subtlexUSWords ArrayList;
-	 * words-logfrequencies in subtlexUS list.
+	 * Loads the SUBTLexUS list from file: the words with their log frequencies,
+	 * for words with a log frequency above 1.
 	 * 
 	 * @throws Exception
+	 * @return words and their SubtlexLog10WF.
 	 */
-	private static void loadSubtlexUSList() throws Exception {
-		BufferedReader br = new BufferedReader(new FileReader("resources/SUBTLexUS.txt"));
+	static Map<String, Double> readSubtlexUSList(String path) throws Exception {
+		Map<String, Double> subtlexUS = new TreeMap<String, Double>();
+		BufferedReader br = new BufferedReader(new FileReader(path));
 		String dummy = "";
 		br.readLine();
 		while ((dummy = br.readLine()) != null) {
@@ -88,6 +132,7 @@ public class WordlistsBasedFeatures {
 			}
 		}
 		br.close();
+		return subtlexUS;
 	}
 
 	/**
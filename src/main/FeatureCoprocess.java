@@ -0,0 +1,159 @@
+/**
+ *
+ */
+package src.main;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+
+import src.pipeline.FeatureService;
+
+/**
+ * @author svajjala Runs as a co-process of another program (e.g. a Python
+ *         training script): reads documents from stdin, one JSON object per
+ *         line, and writes one JSON object per line with their features to
+ *         stdout. The models are loaded once, so any number of documents can
+ *         be streamed through one JVM.
+ *
+ *         Input lines: {"id": ..., "text": "..."}. "filepath" (as written by
+ *         jsonCombiner.py) is taken as the id when there is no "id"; without
+ *         either, the line number (from 0) is the id.
+ *
+ *         Output lines: {"id": ..., "features": {...}} or {"id": ...,
+ *         "error": "..."}, with the id as given. Documents are worked on by
+ *         several threads at once and answered as they finish, so the answers
+ *         can come in another order than the documents: match them by id.
+ *         NaN values are written as null. Reading stops at the end of stdin;
+ *         the process exits once every document has been answered.
+ *
+ *         Everything else the program prints (loading messages, errors) goes
+ *         to stderr, so that stdout only carries answers.
+ *
+ *         Options: --workers (default: number of cores), --batch-size,
+ *         --batch-wait-ms, --parse-cache, --parse-cache-mb,
+ *         --max-sentence-length and --parse-time-budget-ms as for
+ *         FeatureServer, and
+ *         --max-pending (documents read but not answered yet, default 4 per
+ *         worker).
+ */
+public class FeatureCoprocess {
+
+	private static final String END = new String("END");
+
+	public static void main(String[] args) throws Exception {
+		// Keep stdout for the answers.
+		BufferedWriter out = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), 1 << 16);
+		System.setOut(System.err);
+
+		HashMap<String, String> options = GetFeaturesForADir.parseOptions(args);
+		int cores = Runtime.getRuntime().availableProcessors();
+		int workers = Integer.parseInt(options.getOrDefault("workers", String.valueOf(cores)));
+		int batchSize = Integer.parseInt(
+				options.getOrDefault("batch-size", String.valueOf(FeatureService.DEFAULT_BATCH_SIZE)));
+		long batchWait = Long.parseLong(options.getOrDefault("batch-wait-ms", "0"));
+		int maxPending = Integer.parseInt(options.getOrDefault("max-pending", String.valueOf(4 * workers)));
+
+		FeatureService service = FeatureServer.startService(workers, batchSize, batchWait, options);
+		System.out.println("Ready for documents on stdin");
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16);
+		long numLines = serve(service, in, out, maxPending);
+		service.close();
+		System.out.println("Read " + numLines + " lines: " + service.getStats());
+	}
+
+	/**
+	 * Answers every document of the input, and returns once all answers are
+	 * written.
+	 *
+	 * @return the number of lines read.
+	 */
+	static long serve(FeatureService service, BufferedReader in, BufferedWriter out, int maxPending)
+			throws Exception {
+		// One thread writes the answers, and flushes whenever it runs out of them.
+		LinkedBlockingQueue<String> answers = new LinkedBlockingQueue<String>();
+		Thread writer = new Thread(() -> writeLoop(answers, out), "answer-writer");
+		writer.setDaemon(true);
+		writer.start();
+
+		// Reading waits while maxPending documents are unanswered.
+		Semaphore pending = new Semaphore(maxPending);
+		JSONParser parser = new JSONParser();
+		long lineNumber = 0;
+		String line;
+		while ((line = in.readLine()) != null) {
+			long index = lineNumber++;
+			if (line.trim().isEmpty()) {
+				continue;
+			}
+			Object id = index;
+			String text;
+			try {
+				JSONObject document = (JSONObject) parser.parse(line);
+				if (document.get("id") != null) {
+					id = document.get("id");
+				} else if (document.get("filepath") != null) {
+					id = document.get("filepath");
+				}
+				Object value = document.get("text");
+				text = value == null ? "" : value.toString();
+			} catch (Exception e) {
+				answers.put(answer(id, "error", "Line " + index + " is not a JSON object: " + e));
+				continue;
+			}
+			pending.acquire();
+			Object answerId = id;
+			service.submit(String.valueOf(id), text).whenComplete((features, ex) -> {
+				try {
+					answers.add(ex == null ? answer(answerId, "features", features)
+							: answer(answerId, "error", String.valueOf(ex)));
+				} finally {
+					pending.release();
+				}
+			});
+		}
+		pending.acquire(maxPending);
+		answers.put(END);
+		writer.join();
+		return lineNumber;
+	}
+
+	private static String answer(Object id, String key, Object value) {
+		LinkedHashMap<String, Object> answer = new LinkedHashMap<String, Object>();
+		answer.put("id", id);
+		answer.put(key, value);
+		return JSONValue.toJSONString(answer);
+	}
+
+	private static void writeLoop(LinkedBlockingQueue<String> answers, BufferedWriter out) {
+		try {
+			String answer;
+			while ((answer = answers.take()) != END) {
+				out.write(answer);
+				out.newLine();
+				if (answers.isEmpty()) {
+					out.flush();
+				}
+			}
+			out.flush();
+		} catch (Exception e) {
+			// The caller went away; nothing more can be answered.
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+}
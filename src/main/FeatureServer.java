@@ -0,0 +1,275 @@
+/**
+ *
+ */
+package src.main;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import src.features.FeatureEngine;
+import src.pipeline.FeatureService;
+import src.preprocessing.AnnotatedDocument;
+import src.preprocessing.AnnotationLayer;
+import src.preprocessing.ParseCache;
+import src.preprocessing.PreprocessText;
+import src.utils.genutils.RunMetrics;
+
+/**
+ * @author svajjala A local HTTP service that extracts the features of
+ *         GetFeaturesForADir for texts sent to it. The parser, tagger, WordNet
+ *         and word lists are loaded once, at start up, and a warm up text is
+ *         run before the port is opened, so requests only pay for their own
+ *         texts. Texts go to a FeatureService, which runs them in micro-batches
+ *         on its workers.
+ *
+ *         POST /features: either a JSON object (Content-Type application/json)
+ *         with "text" (one text) or "texts" (an array of texts), or any other
+ *         body, which is taken as one plain text with its lines joined as in
+ *         getFileContent(). Answers {"features": {...}} for one text and
+ *         {"results": [{"features": {...}} or {"error": "..."}, ...]} for an
+ *         array, in the order given. NaN values are written as null. Answers
+ *         503 if the texts would take those waiting or running over
+ *         --max-pending, and 413 if a request alone has more texts than that.
+ *
+ *         GET /stats: the RunMetrics report (throughput and p50, p95, p99
+ *         latencies per step, in milliseconds) and the service counters.
+ *
+ *         GET /health: "ok" once the service is warm.
+ *
+ *         Options: --host (default 127.0.0.1), --port (default 8080),
+ *         --workers (default: number of cores), --batch-size (default 8),
+ *         --batch-wait-ms (default 0), --http-threads, --max-pending (texts
+ *         queued or running at once, default 32 per worker), --parse-cache (a
+ *         ParseCache directory; off by default), --parse-cache-mb (its size
+ *         bound, default 4096), and --max-sentence-length and
+ *         --parse-time-budget-ms (parse limits, off by default; see
+ *         GetFeaturesForADir).
+ */
+public class FeatureServer {
+
+	private static final String WARMUP_TEXT = "The quick brown fox jumps over the lazy dog. It was not amused.";
+
+	private final FeatureService service;
+	private final RunMetrics metrics;
+
+	FeatureServer(FeatureService service, RunMetrics metrics) {
+		this.service = service;
+		this.metrics = metrics;
+	}
+
+	public static void main(String[] args) throws Exception {
+		HashMap<String, String> options = GetFeaturesForADir.parseOptions(args);
+		int cores = Runtime.getRuntime().availableProcessors();
+		String host = options.getOrDefault("host", "127.0.0.1");
+		int port = Integer.parseInt(options.getOrDefault("port", "8080"));
+		int workers = Integer.parseInt(options.getOrDefault("workers", String.valueOf(cores)));
+		int batchSize = Integer.parseInt(
+				options.getOrDefault("batch-size", String.valueOf(FeatureService.DEFAULT_BATCH_SIZE)));
+		long batchWait = Long.parseLong(options.getOrDefault("batch-wait-ms", "0"));
+		int httpThreads = Integer.parseInt(
+				options.getOrDefault("http-threads", String.valueOf(Math.max(8, 2 * workers))));
+
+		int maxPending = Integer.parseInt(options.getOrDefault("max-pending", String.valueOf(32 * workers)));
+
+		FeatureService service = startService(workers, batchSize, batchWait, options);
+		// Requests beyond this are answered 503 instead of queueing without bound.
+		service.setMaxPending(maxPending);
+		RunMetrics metrics = new RunMetrics();
+		service.setMetrics(metrics);
+		HttpServer server = new FeatureServer(service, metrics).start(host, port, httpThreads);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			server.stop(1);
+			System.out.println(service.getStats());
+			System.out.println(metrics.getSummary());
+		}));
+		System.out.println("Serving features on http://" + host + ":" + port + " with " + workers + " workers");
+	}
+
+	/**
+	 * Opens the port and starts answering requests.
+	 *
+	 * @param host        : the address to listen on
+	 * @param port        : the port
+	 * @param httpThreads : number of request handler threads
+	 * @return the running server
+	 * @throws IOException
+	 */
+	HttpServer start(String host, int port, int httpThreads) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(host, port), 0);
+		server.createContext("/features", this::handleFeatures);
+		server.createContext("/stats", this::handleStats);
+		server.createContext("/health", exchange -> send(exchange, 200, "text/plain", "ok"));
+		// Handler threads only wait for the workers, so there can be more of them.
+		server.setExecutor(Executors.newFixedThreadPool(httpThreads, r -> {
+			Thread t = new Thread(r, "http-handler");
+			t.setDaemon(true);
+			return t;
+		}));
+		server.start();
+		return server;
+	}
+
+	/**
+	 * Loads everything and runs the warm up text.
+	 *
+	 * @param options : command line options; --parse-cache, --parse-cache-mb,
+	 *                --max-sentence-length and --parse-time-budget-ms are read
+	 *                as in GetFeaturesForADir
+	 */
+	static FeatureService startService(int workers, int batchSize, long batchWait, HashMap<String, String> options)
+			throws Exception {
+		long start = System.nanoTime();
+		FeatureEngine features = new FeatureEngine();
+		EnumSet<AnnotationLayer> layers = features.getRequiredLayers();
+		// One parser query per worker.
+		PreprocessText preprocess = new PreprocessText(workers);
+		ParseCache parseCache = GetFeaturesForADir.openParseCache(options);
+		if (parseCache != null) {
+			preprocess.setParseCache(parseCache);
+		}
+		// Run-on sentences may not be worth holding a request for minutes.
+		GetFeaturesForADir.setParseLimits(preprocess, GetFeaturesForADir.getMaxSentenceLength(options),
+				GetFeaturesForADir.getParseTimeBudget(options));
+		FeatureService service = new FeatureService(doc -> {
+			AnnotatedDocument document = preprocess.annotate(doc.getText(), layers);
+			document.require(layers);
+			return document;
+		}, (doc, document) -> features.getFeatures(document), workers, batchSize, batchWait);
+		service.submit("warmup", WARMUP_TEXT).get();
+		System.out.println("Loaded and warmed up in " + (System.nanoTime() - start) / 1000000 + " ms");
+		return service;
+	}
+
+	private void handleFeatures(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		try {
+			if (!exchange.getRequestMethod().equals("POST")) {
+				sendError(exchange, 405, "Use POST");
+				return;
+			}
+			String body = new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8);
+			String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+			List<String> texts = new ArrayList<String>();
+			boolean single;
+			if (contentType != null && contentType.contains("json")) {
+				Object request;
+				try {
+					request = new JSONParser().parse(body);
+				} catch (Exception e) {
+					sendError(exchange, 400, "Not JSON: " + e);
+					return;
+				}
+				single = request instanceof JSONObject && ((JSONObject) request).get("text") instanceof String;
+				if (single) {
+					texts.add((String) ((JSONObject) request).get("text"));
+				} else if (request instanceof JSONObject && ((JSONObject) request).get("texts") instanceof JSONArray) {
+					for (Object text : (JSONArray) ((JSONObject) request).get("texts")) {
+						texts.add(text == null ? "" : text.toString());
+					}
+				} else {
+					sendError(exchange, 400, "Expected {\"text\": \"...\"} or {\"texts\": [...]}");
+					return;
+				}
+			} else {
+				single = true;
+				texts.add(PreprocessText.joinLines(body));
+			}
+
+			if (service.getMaxPending() > 0 && texts.size() > service.getMaxPending()) {
+				sendError(exchange, 413, "At most " + service.getMaxPending() + " texts per request");
+				return;
+			}
+			List<CompletableFuture<TreeMap<String, Double>>> results = service
+					.trySubmitAll(String.valueOf(exchange.getRemoteAddress()), texts);
+			if (results == null) {
+				exchange.getResponseHeaders().set("Retry-After", "1");
+				sendError(exchange, 503, "Too many texts waiting; try again later");
+				return;
+			}
+			List<LinkedHashMap<String, Object>> answers = new ArrayList<LinkedHashMap<String, Object>>();
+			boolean failed = false;
+			for (CompletableFuture<TreeMap<String, Double>> result : results) {
+				LinkedHashMap<String, Object> answer = new LinkedHashMap<String, Object>();
+				try {
+					answer.put("features", result.get());
+				} catch (ExecutionException e) {
+					answer.put("error", String.valueOf(e.getCause()));
+					failed = true;
+				}
+				answers.add(answer);
+			}
+			if (single) {
+				send(exchange, failed ? 500 : 200, "application/json", JSONValue.toJSONString(answers.get(0)));
+			} else {
+				LinkedHashMap<String, Object> response = new LinkedHashMap<String, Object>();
+				response.put("results", answers);
+				send(exchange, 200, "application/json", JSONValue.toJSONString(response));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			sendError(exchange, 503, "Interrupted");
+		} finally {
+			metrics.recordSince(RunMetrics.REQUEST, start);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void handleStats(HttpExchange exchange) throws IOException {
+		JSONObject stats = metrics.getReport();
+		JSONObject counters = new JSONObject();
+		counters.putAll(service.getStatsMap());
+		stats.put("service", counters);
+		send(exchange, 200, "application/json", stats.toJSONString());
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1 << 16];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			bytes.write(buffer, 0, n);
+		}
+		in.close();
+		return bytes.toByteArray();
+	}
+
+	private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+		LinkedHashMap<String, Object> error = new LinkedHashMap<String, Object>();
+		error.put("error", message);
+		send(exchange, status, "application/json", JSONValue.toJSONString(error));
+	}
+
+	private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+
+}
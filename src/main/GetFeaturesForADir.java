@@ -3,30 +3,31 @@
  */
 package src.main;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.TreeMap;
-import java.util.stream.IntStream;
-
-import edu.stanford.nlp.ling.TaggedWord;
-import edu.stanford.nlp.trees.Tree;
-import edu.stanford.nlp.util.ScoredObject;
-import src.features.POSTagBasedFeatures;
-import src.features.ParseTreeBasedFeatures;
-import src.features.PsycholingFeatures;
-import src.features.TraditionalFeatures;
-import src.features.WordBasedFeatures;
-import src.features.WordNetBasedFeatures;
-import src.features.WordlistsBasedFeatures;
-import src.features.KBestParseBasedFeatures;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Set;
+
+import src.features.FeatureEngine;
+import src.pipeline.CsvFeatureSink;
+import src.pipeline.DirectoryDocumentReader;
+import src.pipeline.DocumentReader;
+import src.pipeline.FeatureSink;
+import src.pipeline.FilteredDocumentReader;
+import src.pipeline.JsonDocumentReader;
+import src.pipeline.MatrixFeatureSink;
+import src.pipeline.ProgressJournal;
+import src.pipeline.ShardSpec;
+import src.pipeline.StagedPipeline;
+import src.preprocessing.AnnotatedDocument;
+import src.preprocessing.AnnotationLayer;
+import src.preprocessing.ParseCache;
 import src.preprocessing.PreprocessText;
-import java.io.FileReader;
-import org.json.simple.JSONObject;
-import org.json.simple.JSONArray;
-import org.json.simple.parser.*;
-import java.util.concurrent.atomic.*;
+import src.preprocessing.SentenceMemo;
+import src.utils.genutils.BoundedMemo;
+import src.utils.genutils.RunMetrics;
 
 /**
  * @author sowmya
@@ -34,112 +35,225 @@ import java.util.concurrent.atomic.*;
  */
 public class GetFeaturesForADir {
 
+	static final int DEFAULT_MEMO_SIZE = 20000;
+	static final long DEFAULT_PARSE_CACHE_MB = 4096;
+
 	/**
 	 * @param args Purpose: Take a directory path, calculate features for all files
 	 *             and save as a csv file.
+	 *
+	 *             Options (all optional): --input, --output, --preprocess-threads,
+	 *             --extract-threads, --queue-size, --report-interval (seconds),
+	 *             --resume (true to continue an interrupted run), --metrics-report
+	 *             (where to write the JSON metrics; defaults to the output path
+	 *             with .metrics.json appended), --glob (which files of an input
+	 *             directory to read; defaults to **.txt), --shard (i/N: only
+	 *             the documents of shard i of N, see ShardSpec and
+	 *             MergeShardOutputs), --format (csv, the default, or matrix: the
+	 *             binary column major format of MatrixFeatureSink, which cannot be
+	 *             resumed), --memo-size (how many sentences to keep in memory, so
+	 *             that repeated sentences are tagged, parsed and counted once;
+	 *             default 20000, 0 turns it off), --parse-cache (a ParseCache
+	 *             directory, to keep tags and parses across runs; off by default),
+	 *             --parse-cache-mb (its size bound, default 4096),
+	 *             --max-sentence-length (sentences with more tokens are not
+	 *             parsed) and --parse-time-budget-ms (parsing a sentence is
+	 *             given up after this long). The last two are off by default:
+	 *             sentences they skip get a fallback tree and are left out of the
+	 *             syntactic averages, so features differ from a run without them.
 	 */
 	public static void main(String[] args) throws Exception {
 
-		// args[0] is the directory path containing .txt files
-		// args[1] is the .csv file to store the output.
-		extractFeaturesForDir("Newsela__None.json", "sample10Newsela.csv"); // Change these two paths
-		// to input dir, output
-		// csv resp,
-		// Compile the file, and
-		// run it.
+		// --input is a directory of text files, a JSON array of {filepath, text}
+		// records, or JSON lines.
+		// --output is the .csv file to store the output.
+		HashMap<String, String> options = parseOptions(args);
+		int numCores = Runtime.getRuntime().availableProcessors();
+		// Tagging and parsing take nearly all the time; extraction is cheap.
+		int preprocessThreads = Integer.parseInt(options.getOrDefault("preprocess-threads", String.valueOf(numCores)));
+		int extractThreads = Integer
+				.parseInt(options.getOrDefault("extract-threads", String.valueOf(Math.max(1, numCores / 4))));
+		int queueSize = Integer.parseInt(options.getOrDefault("queue-size", String.valueOf(2 * preprocessThreads)));
+		long reportInterval = Long.parseLong(options.getOrDefault("report-interval", "60"));
+		boolean resume = Boolean.parseBoolean(options.getOrDefault("resume", "false"));
+		String outputfilepath = options.getOrDefault("output", "sample10Newsela.csv");
+		String format = options.getOrDefault("format", "csv");
+		if (!format.equals("csv") && !format.equals("matrix")) {
+			System.out.println("Unknown format: " + format);
+			System.exit(1);
+		}
+		if (resume && !format.equals("csv")) {
+			System.out.println("Only csv output can be resumed");
+			System.exit(1);
+		}
+		extractFeaturesForDir(options.getOrDefault("input", "Newsela__None.json"), // Change these two paths
+				outputfilepath, format, // to input dir, output csv resp, or pass them as options.
+				options.getOrDefault("glob", DirectoryDocumentReader.DEFAULT_GLOB),
+				options.containsKey("shard") ? ShardSpec.parse(options.get("shard")) : ShardSpec.ALL,
+				preprocessThreads, extractThreads, queueSize, reportInterval, resume,
+				options.getOrDefault("metrics-report", outputfilepath + ".metrics.json"),
+				Integer.parseInt(options.getOrDefault("memo-size", String.valueOf(DEFAULT_MEMO_SIZE))),
+				openParseCache(options), getMaxSentenceLength(options), getParseTimeBudget(options));
+	}
+
+	/**
+	 * @return --max-sentence-length, or 0 (no limit).
+	 */
+	static int getMaxSentenceLength(HashMap<String, String> options) {
+		return Integer.parseInt(options.getOrDefault("max-sentence-length", "0"));
+	}
+
+	/**
+	 * @return --parse-time-budget-ms, or 0 (no limit).
+	 */
+	static long getParseTimeBudget(HashMap<String, String> options) {
+		return Long.parseLong(options.getOrDefault("parse-time-budget-ms", "0"));
+	}
+
+	/**
+	 * Sets the parse limits, if any, and says so: sentences that hit them are
+	 * not parsed, which changes the syntactic features.
+	 *
+	 * @param maxSentenceLength : maximum number of tokens, 0 for no limit
+	 * @param parseTimeBudget   : budget per sentence in milliseconds, 0 for no
+	 *                          limit
+	 */
+	static void setParseLimits(PreprocessText preprocess, int maxSentenceLength, long parseTimeBudget) {
+		if (maxSentenceLength > 0) {
+			preprocess.setMaxSentenceLength(maxSentenceLength);
+			System.out.println("Sentences longer than " + maxSentenceLength
+					+ " tokens are not parsed (left out of the syntactic features)");
+		}
+		if (parseTimeBudget > 0) {
+			preprocess.setParseTimeBudget(parseTimeBudget);
+			System.out.println("Parsing a sentence is given up after " + parseTimeBudget
+					+ " ms (left out of the syntactic features)");
+		}
+	}
+
+	/**
+	 * Opens the ParseCache given by --parse-cache, bounded by --parse-cache-mb.
+	 *
+	 * @return the cache, or null without --parse-cache.
+	 * @throws Exception
+	 */
+	static ParseCache openParseCache(HashMap<String, String> options) throws Exception {
+		String directory = options.get("parse-cache");
+		if (directory == null) {
+			return null;
+		}
+		long maxMegabytes = Long
+				.parseLong(options.getOrDefault("parse-cache-mb", String.valueOf(DEFAULT_PARSE_CACHE_MB)));
+		System.out.println("Parse cache: " + directory + ", at most " + maxMegabytes + " MB");
+		return new ParseCache(directory, maxMegabytes * 1024 * 1024);
 	}
 
-	private static void extractFeaturesForDir(String jsonpath, String outputfilepath) throws Exception {
-		// File jsonfile = new File(jsonpath);
-		// parsing file "JSONExample.json"
-		Object obj = new JSONParser().parse(new FileReader(jsonpath));
-
-		// typecasting obj to JSONObject
-		JSONArray jsonArray = (JSONArray) obj;
-
-		// long startTime = System.nanoTime();
-		AtomicInteger numDocs = new AtomicInteger(0);
-		AtomicLong startTime = new AtomicLong(System.currentTimeMillis());
-		BufferedWriter bw = new BufferedWriter(new FileWriter(outputfilepath));
-
-		POSTagBasedFeatures pos = new POSTagBasedFeatures();
-		WordBasedFeatures word = new WordBasedFeatures();
-		ParseTreeBasedFeatures parse = new ParseTreeBasedFeatures();
-		WordlistsBasedFeatures lists = new WordlistsBasedFeatures();
-		TraditionalFeatures tradfeatures = new TraditionalFeatures();
-		WordNetBasedFeatures wnfeatures = new WordNetBasedFeatures();
-		PsycholingFeatures psycholingfeatures = new PsycholingFeatures();
-		KBestParseBasedFeatures kBestParseFeatures = new KBestParseBasedFeatures();
-
-		PreprocessText preprocess = new PreprocessText();
-		// long endTime = System.nanoTime();
-		// for (int i = 0; i < jsonArray.size(); i++) {
-		IntStream stream = IntStream.range(1, jsonArray.size());
-		processFile(0, jsonArray, numDocs, startTime, bw, pos, word, parse, lists, tradfeatures, wnfeatures,
-				psycholingfeatures, preprocess, kBestParseFeatures);
-		stream.parallel().forEach((i) -> {
-			try {
-				processFile(i, jsonArray, numDocs, startTime, bw, pos, word, parse, lists, tradfeatures, wnfeatures,
-						psycholingfeatures, preprocess, kBestParseFeatures);
-			} catch (Exception e) {
-				e.printStackTrace();
+	/**
+	 * Reads "--key value" pairs.
+	 */
+	static HashMap<String, String> parseOptions(String[] args) {
+		HashMap<String, String> options = new HashMap<String, String>();
+		for (int i = 0; i < args.length; i++) {
+			if (!args[i].startsWith("--") || i + 1 == args.length) {
+				System.out.println("Ignoring argument: " + args[i]);
+				continue;
 			}
-		});
-		bw.close();
-		System.out.println("Finished writing all files!");
+			options.put(args[i].substring(2), args[++i]);
+		}
+		return options;
 	}
 
-	private static void processFile(int i, JSONArray jsonArray, AtomicInteger numDocs, AtomicLong startTime,
-			BufferedWriter bw, POSTagBasedFeatures pos, WordBasedFeatures word, ParseTreeBasedFeatures parse,
-			WordlistsBasedFeatures lists, TraditionalFeatures tradfeatures, WordNetBasedFeatures wnfeatures,
-			PsycholingFeatures psycholingfeatures, PreprocessText preprocess, KBestParseBasedFeatures kBestParse)
+	/**
+	 * Opens a directory of text files, or a JSON or JSON lines file.
+	 */
+	static DocumentReader openInput(String inputpath, String glob) throws Exception {
+		return Files.isDirectory(Paths.get(inputpath)) ? new DirectoryDocumentReader(inputpath, glob)
+				: new JsonDocumentReader(inputpath);
+	}
+
+	private static void extractFeaturesForDir(String inputpath, String outputfilepath, String format, String glob,
+			ShardSpec shard, int preprocessThreads, int extractThreads, int queueSize, long reportInterval, boolean resume,
+			String metricsReportPath, int memoSize, ParseCache parseCache, int maxSentenceLength, long parseTimeBudget)
 			throws Exception {
-		String header = "filename,";
+		// Every flushed batch of csv rows is journaled, so that a crashed run can be resumed.
+		ProgressJournal journal = format.equals("csv") ? new ProgressJournal(outputfilepath + ".journal", resume)
+				: null;
+		Set<String> completed = journal == null ? Collections.<String>emptySet() : journal.getCompleted();
+		if (resume) {
+			System.out.println("Resuming: " + completed.size() + " documents already done");
+		}
 
-		JSONObject jo = (JSONObject) jsonArray.get(i);
-		int docsProcessed = numDocs.getAndIncrement();
-		if (docsProcessed != 0 && docsProcessed % 10 == 0) {
-			double timeDiff = ((System.currentTimeMillis() - startTime.get()) / 1000);
-			System.out.println("Rate: " + (double) docsProcessed / timeDiff);
+		if (shard != ShardSpec.ALL) {
+			System.out.println("Extracting shard " + shard);
 		}
-		// if (i % 10 == 0) {
-		// System.out.println("Printing for file: " + jo.get("filepath"));
-		// }
-		String content = (String) jo.get("text");
-		String filepath = (String) jo.get("filepath");
-		List<?> taggedParsedSentences = preprocess.preProcessFile(content);
-		@SuppressWarnings("unchecked")
-		List<List<TaggedWord>> taggedSentences = (List<List<TaggedWord>>) taggedParsedSentences.get(0);
-		@SuppressWarnings("unchecked")
-		List<Tree> parsedSentences = (List<Tree>) taggedParsedSentences.get(1);
-		@SuppressWarnings("unchecked")
-		ArrayList<String> tokenizedSentences = (ArrayList<String>) taggedParsedSentences.get(2);
-		@SuppressWarnings("unchecked")
-		List<List<ScoredObject<Tree>>> kBestParsedSentences = (List<List<ScoredObject<Tree>>>) taggedParsedSentences.get(3);
-
-		TreeMap<String, Double> allFeatures = new TreeMap<String, Double>();
-		allFeatures.putAll(pos.getPOSTagBasedFeatures(taggedSentences));
-		allFeatures.putAll(word.getWordBasedFeatures(tokenizedSentences));
-		allFeatures.putAll(tradfeatures.getTraditionalFeatures(content));
-		allFeatures.putAll(wnfeatures.getWNFeatures(taggedSentences));
-		allFeatures.putAll(psycholingfeatures.getPsycholingFeatures(taggedSentences));
-		allFeatures.putAll(parse.getSyntacticComplexityFeatures(parsedSentences));
-		allFeatures.putAll(kBestParse.getSyntacticComplexityFeatures(kBestParsedSentences));
-
-		String temp = filepath;
-		for (String s : allFeatures.keySet()) // Prints all the features along with names.
-		{
-			if (i == 0) {
-				header += "," + s;
+
+		// Files and records are read one at a time, never loaded as a whole.
+		DocumentReader reader = new FilteredDocumentReader(openInput(inputpath, glob),
+				doc -> shard.contains(doc.getShardKey()) && !completed.contains(doc.getFilepath()));
+
+		RunMetrics metrics = new RunMetrics();
+		// Rows come out in input order, whichever worker finishes first.
+		FeatureSink sink;
+		if (journal != null) {
+			// When resuming, rows after the last journaled batch are cut off and redone.
+			sink = new CsvFeatureSink(outputfilepath, journal.getCommittedOffset());
+			sink.setJournal(journal);
+		} else {
+			sink = new MatrixFeatureSink(outputfilepath);
+		}
+
+		FeatureEngine features = new FeatureEngine();
+		features.setMetrics(metrics);
+		EnumSet<AnnotationLayer> layers = features.getRequiredLayers();
+
+		// One parser query per preprocess worker.
+		PreprocessText preprocess = new PreprocessText(preprocessThreads);
+		// Tags and parses are kept across runs; delete the directory to start afresh.
+		if (parseCache != null) {
+			preprocess.setParseCache(parseCache);
+		}
+		preprocess.setMetrics(metrics);
+		// Run-on sentences (tables, lists, bad scrapes) may not be worth minutes of parsing.
+		setParseLimits(preprocess, maxSentenceLength, parseTimeBudget);
+		// Levels of the same article share many sentences; those are only done once.
+		SentenceMemo sentenceMemo = null;
+		BoundedMemo<String, int[]> treeCountMemo = null;
+		if (memoSize > 0) {
+			sentenceMemo = new SentenceMemo(memoSize);
+			preprocess.setSentenceMemo(sentenceMemo);
+			// Every tree is counted twice as it is (see getParsedSentences()).
+			treeCountMemo = new BoundedMemo<String, int[]>(5 * memoSize);
+			features.setTreeCountMemo(treeCountMemo);
+		}
+
+		StagedPipeline pipeline = new StagedPipeline(doc -> {
+			AnnotatedDocument document = preprocess.annotate(doc.getText(), layers);
+			document.require(layers);
+			return document;
+		}, preprocessThreads, (doc, document) -> features.getFeatures(document), extractThreads, queueSize);
+		pipeline.setReportInterval(reportInterval);
+		pipeline.setMetrics(metrics);
+		try {
+			pipeline.run(reader, sink);
+		} finally {
+			reader.close();
+			sink.close();
+			if (journal != null) {
+				journal.close();
 			}
-			temp += "," + allFeatures.get(s);
 		}
-		if (i == 0) {
-			bw.write(header);
-			bw.newLine();
+		System.out.println(pipeline.getStats());
+		System.out.println(metrics.getSummary());
+		metrics.writeReport(metricsReportPath);
+		if (parseCache != null) {
+			System.out.println(parseCache.getStats());
 		}
-		bw.write(temp);
-		bw.newLine();
+		if (sentenceMemo != null) {
+			System.out.println(sentenceMemo.getStats());
+			System.out.println("Tree count memo: " + treeCountMemo);
+		}
+		System.out.println(preprocess.getParseStats());
+		System.out.println("Finished writing all files!");
 	}
 
-}
\ No newline at end of file
+}
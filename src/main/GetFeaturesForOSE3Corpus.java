@@ -4,22 +4,23 @@
 package src.main;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.FileReader;
-import java.io.FileWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.EnumSet;
 import java.util.TreeMap;
-
-import edu.stanford.nlp.ling.TaggedWord;
-import edu.stanford.nlp.trees.Tree;
-import src.features.POSTagBasedFeatures;
-import src.features.ParseTreeBasedFeatures;
-import src.features.PsycholingFeatures;
-import src.features.TraditionalFeatures;
-import src.features.WordBasedFeatures;
-import src.features.WordNetBasedFeatures;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import src.features.FeatureEngine;
+import src.pipeline.FeatureIndexRegistry;
+import src.pipeline.SvmLightWriter;
+import src.preprocessing.AnnotatedDocument;
+import src.preprocessing.AnnotationLayer;
 import src.preprocessing.PreprocessText;
+import src.preprocessing.SentenceMemo;
+import src.utils.genutils.BoundedMemo;
 
 /**
  * Feature extraction for the OSE3 corpus. SVMLight format.
@@ -27,114 +28,121 @@ import src.preprocessing.PreprocessText;
  * @author svajjala
  * 
  *         Prints the output as a series of Feature, Value strings.
+ * 
+ *         Texts are processed on all cores, but lines are written in corpus
+ *         order: level 3, 2, 1 of triplet 1, then of triplet 2, and so on.
+ * 
+ *         Feature indexes come from a persisted FeatureIndexRegistry, so a
+ *         feature keeps its index across runs, and zero values are left out.
  */
 public class GetFeaturesForOSE3Corpus {
 
 	/**
 	 * @param args
 	 */
-	private static WordBasedFeatures wordbased;
-	private static TraditionalFeatures tradfeatures;
-	private static POSTagBasedFeatures postagfeatures;
-	private static PsycholingFeatures psycholingfeatures;
-	private static ParseTreeBasedFeatures parsetreefeatures;
+	private static FeatureEngine features;
 	private static PreprocessText process;
+	private static EnumSet<AnnotationLayer> layers;
+	private static SentenceMemo sentenceMemo;
+	private static BoundedMemo<String, int[]> treeCountMemo;
+	private static final String DEFAULT_REGISTRY_PATH = "ose3-featureindex.txt";
 
 	public static void main(String[] args) throws Exception {
 
-		if (!(args.length == 2)) {
+		if (!(args.length == 2 || args.length == 3)) {
 			System.out.println(
 					"Two arguments. Args1 is the path to OSE3 sentence aligned corpus. Args2 is the path to save feature file");
+			System.out.println("Optional Args3 is the feature index file (default: " + DEFAULT_REGISTRY_PATH
+					+ "); keep it to keep feature indexes stable across runs");
 			System.exit(1);
 		}
 		init();
 		String inputPath = args[0];
 		String outputPath = args[1];
+		String registryPath = args.length == 3 ? args[2] : DEFAULT_REGISTRY_PATH;
 
 		BufferedReader br = new BufferedReader(new FileReader(inputPath));
-		BufferedWriter bw = new BufferedWriter(new FileWriter(outputPath));
-
-		String dummy = "";
-		int qid = 1;
-		ArrayList<String> temp = new ArrayList<String>();
-		while ((dummy = br.readLine()) != null) {
-			if (!(dummy.contains("****"))) {
-				temp.add(dummy);
-			} else {
-				if (temp.size() == 3) {
-					for (int i = 0; i < temp.size(); i++) {
-						int level = 3 - i;
-						@SuppressWarnings("unchecked")
-						List<?> preprocessed = (List<Tree>) process.preProcessFile(temp.get(i));
-						@SuppressWarnings("unchecked")
-						List<Tree> parsedSentence = (List<Tree>) preprocessed.get(1);
-						@SuppressWarnings("unchecked")
-						List<List<TaggedWord>> taggedSentence = (List<List<TaggedWord>>) preprocessed.get(0);
-						@SuppressWarnings("unchecked")
-						ArrayList<String> tokenizedSentence = (ArrayList<String>) preprocessed.get(2);
-
-						TreeMap<String, Double> allFeatures = new TreeMap<String, Double>();
-						allFeatures.putAll(getTradFeatures(temp.get(i)));
-						allFeatures.putAll(getWordBasedFeatures(tokenizedSentence));
-						allFeatures.putAll(getPOSFeatures(taggedSentence));
-						allFeatures.putAll(getPsychFeatures(taggedSentence));
-						allFeatures.putAll(getParseTreeFeatures(parsedSentence));
-						String result = "";
-						int index = 1;
-						for (String s : allFeatures.keySet()) {
-							result += index + ":" + allFeatures.get(s) + " ";
-							index++;
+		FeatureIndexRegistry registry = new FeatureIndexRegistry(registryPath);
+		SvmLightWriter writer = new SvmLightWriter(outputPath, registry);
+
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+		// Lines in corpus order. Only a few texts per core are in flight at a time.
+		ArrayDeque<Future<Line>> pending = new ArrayDeque<Future<Line>>();
+		int maxPending = 4 * numThreads;
+
+		try {
+			String dummy = "";
+			int qid = 1;
+			ArrayList<String> temp = new ArrayList<String>();
+			while ((dummy = br.readLine()) != null) {
+				if (!(dummy.contains("****"))) {
+					temp.add(dummy);
+				} else {
+					if (temp.size() == 3) {
+						for (int i = 0; i < temp.size(); i++) {
+							int level = 3 - i;
+							String text = temp.get(i);
+							int currentQid = qid;
+							pending.add(workers.submit(() -> new Line(level, currentQid, getFeatures(text))));
+							while (pending.size() >= maxPending) {
+								pending.poll().get().write(writer);
+							}
 						}
-						// System.exit(1);
-						bw.write(level + " " + "qid:" + qid + " " + result);
-						bw.newLine();
+						temp.clear();
+						qid = qid + 1;
+					} else {
+						System.out.println("Something is wrong!!" + temp.get(0));
 					}
-					temp.clear();
-					qid = qid + 1;
-				} else {
-					System.out.println("Something is wrong!!" + temp.get(0));
 				}
 			}
+			while (!pending.isEmpty()) {
+				pending.poll().get().write(writer);
+			}
+			System.out.println("Wrote feature file for " + qid + " triplets");
+			System.out.println(sentenceMemo.getStats());
+			System.out.println("Tree count memo: " + treeCountMemo);
+		} finally {
+			workers.shutdownNow();
+			writer.close();
+			registry.close();
+			br.close();
 		}
-		bw.flush();
-		bw.close();
-		br.close();
-		System.out.println("Wrote feature file for " + qid + " triplets");
 	}
 
-	private static TreeMap<String, Double> getTradFeatures(String sentence) throws Exception {
-		TreeMap<String, Double> result = tradfeatures.getTraditionalFeatures(sentence);
-		return result;
+	private static TreeMap<String, Double> getFeatures(String text) throws Exception {
+		AnnotatedDocument preprocessed = process.annotate(text, layers);
+		return features.getFeatures(preprocessed);
 	}
 
-	private static TreeMap<String, Double> getWordBasedFeatures(ArrayList<String> tokenizedSentence) throws Exception {
-		TreeMap<String, Double> result = wordbased.getWordBasedFeatures(tokenizedSentence);
-		return result;
-	}
-
-	private static TreeMap<String, Double> getParseTreeFeatures(List<Tree> parsedSentence) throws Exception {
-		TreeMap<String, Double> result = parsetreefeatures.getSyntacticComplexityFeatures(parsedSentence);
-		return result;
-	}
-
-	private static TreeMap<String, Double> getPOSFeatures(List<List<TaggedWord>> taggedSentence) throws Exception {
-		TreeMap<String, Double> result = postagfeatures.getPOSTagBasedFeatures(taggedSentence);
-		return result;
-	}
+	/**
+	 * The features of one text, waiting to be written.
+	 */
+	private static class Line {
+		private final int level;
+		private final int qid;
+		private final TreeMap<String, Double> features;
+
+		Line(int level, int qid, TreeMap<String, Double> features) {
+			this.level = level;
+			this.qid = qid;
+			this.features = features;
+		}
 
-	private static TreeMap<String, Double> getPsychFeatures(List<List<TaggedWord>> taggedSentence) throws Exception {
-		TreeMap<String, Double> result = psycholingfeatures.getPsycholingFeatures(taggedSentence);
-		return result;
+		void write(SvmLightWriter writer) throws Exception {
+			writer.write(String.valueOf(level), qid, features);
+		}
 	}
 
 	private static void init() throws Exception {
-		wordbased = new WordBasedFeatures();
-		tradfeatures = new TraditionalFeatures();
-		postagfeatures = new POSTagBasedFeatures();
-		new WordNetBasedFeatures();
-		psycholingfeatures = new PsycholingFeatures();
-		parsetreefeatures = new ParseTreeBasedFeatures();
+		features = new FeatureEngine();
 		process = new PreprocessText();
+		layers = features.getRequiredLayers();
+		// The three levels of a triplet share many sentences; those are only done once.
+		sentenceMemo = new SentenceMemo(GetFeaturesForADir.DEFAULT_MEMO_SIZE);
+		process.setSentenceMemo(sentenceMemo);
+		treeCountMemo = new BoundedMemo<String, int[]>(5 * GetFeaturesForADir.DEFAULT_MEMO_SIZE);
+		features.setTreeCountMemo(treeCountMemo);
 	}
 
 }
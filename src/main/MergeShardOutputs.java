@@ -0,0 +1,272 @@
+/**
+ *
+ */
+package src.main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import src.pipeline.DirectoryDocumentReader;
+import src.pipeline.DocumentReader;
+import src.pipeline.InputDocument;
+
+/**
+ * @author svajjala Combines the csv files written by GetFeaturesForADir --shard
+ *         i/N runs into one file with a single header.
+ *
+ *         All shards must have the same header (feature schema); the merge
+ *         stops if they do not. With --input, rows are written in input order
+ *         and documents missing from every shard are reported; rows are
+ *         matched to the input by shard key (the path relative to the input
+ *         directory, see ShardSpec), so shards written on machines that mount
+ *         the input in other places still line up with it. Without --input,
+ *         shards are concatenated in the order given. Documents that appear
+ *         more than once are reported and written once. A last line without a
+ *         line break (a shard that was cut off) is reported and left out.
+ *
+ *         Options: --shards (comma separated shard files), --output, and
+ *         optionally --input and --glob, as for GetFeaturesForADir.
+ */
+public class MergeShardOutputs {
+
+	private static final int MAX_LISTED = 10;
+
+	public static void main(String[] args) throws Exception {
+		HashMap<String, String> options = GetFeaturesForADir.parseOptions(args);
+		if (!options.containsKey("shards") || !options.containsKey("output")) {
+			System.out.println("Usage: --shards a.csv,b.csv,... --output merged.csv [--input corpus] [--glob **.txt]");
+			System.exit(1);
+		}
+		String[] shards = options.get("shards").split(",");
+
+		// Where each document's row is: shard, offset and length of the line.
+		LinkedHashMap<String, long[]> rows = new LinkedHashMap<String, long[]>();
+		List<String> duplicates = new ArrayList<String>();
+		byte[] header = null;
+		for (int s = 0; s < shards.length; s++) {
+			byte[] shardHeader = indexShard(shards[s], s, rows, duplicates);
+			if (header == null) {
+				header = shardHeader;
+			} else if (!Arrays.equals(header, shardHeader)) {
+				System.out.println("Schema mismatch: " + shards[s] + " does not have the header of " + shards[0]);
+				describeMismatch(header, shardHeader);
+				System.exit(1);
+			}
+		}
+		if (header == null) {
+			System.out.println("No shards given");
+			System.exit(1);
+		}
+
+		List<String> order = new ArrayList<String>();
+		List<String> missing = new ArrayList<String>();
+		List<String> unexpected = new ArrayList<String>();
+		if (options.containsKey("input")) {
+			List<String> inputKeys = getInputKeys(options.get("input"),
+					options.getOrDefault("glob", DirectoryDocumentReader.DEFAULT_GLOB));
+			HashSet<String> keySet = new HashSet<String>(inputKeys);
+			// The row id of each shard key.
+			HashMap<String, String> rowIds = new HashMap<String, String>();
+			for (String id : rows.keySet()) {
+				String key = toShardKey(id, keySet);
+				if (key == null) {
+					unexpected.add(id);
+				} else if (rowIds.containsKey(key)) {
+					duplicates.add(id + " (same document as " + rowIds.get(key) + ")");
+				} else {
+					rowIds.put(key, id);
+				}
+			}
+			HashSet<String> seen = new HashSet<String>();
+			for (String key : inputKeys) {
+				if (!seen.add(key)) {
+					continue;
+				}
+				String id = rowIds.get(key);
+				if (id != null) {
+					order.add(id);
+				} else {
+					missing.add(key);
+				}
+			}
+		} else {
+			order.addAll(rows.keySet());
+		}
+
+		writeMerged(options.get("output"), shards, header, rows, order);
+
+		System.out.println("Merged " + order.size() + " documents from " + shards.length + " shards into "
+				+ options.get("output"));
+		report("Duplicate documents (written once)", duplicates);
+		if (options.containsKey("input")) {
+			report("Documents missing from every shard", missing);
+			report("Documents not in the input (left out)", unexpected);
+		}
+	}
+
+	/**
+	 * Records where each row of a shard is, and returns its header line.
+	 */
+	private static byte[] indexShard(String shardpath, int shard, LinkedHashMap<String, long[]> rows,
+			List<String> duplicates) throws Exception {
+		byte[] header = null;
+		InputStream in = new BufferedInputStream(new FileInputStream(shardpath), 1 << 20);
+		try {
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			long offset = 0;
+			long lineStart = 0;
+			int b;
+			while ((b = in.read()) != -1) {
+				offset++;
+				line.write(b);
+				if (b != '\n') {
+					continue;
+				}
+				byte[] bytes = line.toByteArray();
+				line.reset();
+				if (header == null) {
+					header = stripLineBreak(bytes);
+				} else {
+					String id = getId(bytes);
+					if (rows.containsKey(id)) {
+						duplicates.add(id + " (" + shardpath + ")");
+					} else {
+						rows.put(id, new long[] { shard, lineStart, bytes.length });
+					}
+				}
+				lineStart = offset;
+			}
+			if (line.size() > 0) {
+				System.out.println(shardpath + " ends in an unfinished line, which is left out: "
+						+ getId(line.toByteArray()));
+			}
+		} finally {
+			in.close();
+		}
+		if (header == null) {
+			throw new Exception(shardpath + " has no header");
+		}
+		return header;
+	}
+
+	private static String getId(byte[] line) {
+		int end = 0;
+		while (end < line.length && line[end] != ',' && line[end] != '\n' && line[end] != '\r') {
+			end++;
+		}
+		return new String(line, 0, end, StandardCharsets.UTF_8);
+	}
+
+	private static byte[] stripLineBreak(byte[] line) {
+		int end = line.length;
+		while (end > 0 && (line[end - 1] == '\n' || line[end - 1] == '\r')) {
+			end--;
+		}
+		return Arrays.copyOf(line, end);
+	}
+
+	private static void describeMismatch(byte[] expected, byte[] found) {
+		String[] expectedColumns = new String(expected, StandardCharsets.UTF_8).split(",");
+		String[] foundColumns = new String(found, StandardCharsets.UTF_8).split(",");
+		for (int i = 0; i < Math.max(expectedColumns.length, foundColumns.length); i++) {
+			String e = i < expectedColumns.length ? expectedColumns[i] : "(none)";
+			String f = i < foundColumns.length ? foundColumns[i] : "(none)";
+			if (!e.equals(f)) {
+				System.out.println("First difference at column " + (i + 1) + ": " + e + " vs " + f);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return the shard key of a row id: the id itself, or its longest ending
+	 *         after a path separator that is a key of the input; null if there is
+	 *         none.
+	 */
+	private static String toShardKey(String id, HashSet<String> keys) {
+		String path = id.replace(File.separatorChar, '/');
+		if (keys.contains(path)) {
+			return path;
+		}
+		for (int i = path.indexOf('/'); i >= 0; i = path.indexOf('/', i + 1)) {
+			if (keys.contains(path.substring(i + 1))) {
+				return path.substring(i + 1);
+			}
+		}
+		return null;
+	}
+
+	private static List<String> getInputKeys(String inputpath, String glob) throws Exception {
+		DocumentReader reader = GetFeaturesForADir.openInput(inputpath, glob);
+		try {
+			if (reader instanceof DirectoryDocumentReader) {
+				return ((DirectoryDocumentReader) reader).getShardKeys();
+			}
+			List<String> keys = new ArrayList<String>();
+			InputDocument doc;
+			while ((doc = reader.next()) != null) {
+				keys.add(doc.getShardKey());
+			}
+			return keys;
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static void writeMerged(String outputpath, String[] shards, byte[] header,
+			LinkedHashMap<String, long[]> rows, List<String> order) throws Exception {
+		RandomAccessFile[] shardFiles = new RandomAccessFile[shards.length];
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(outputpath), 1 << 20);
+		try {
+			for (int s = 0; s < shards.length; s++) {
+				shardFiles[s] = new RandomAccessFile(shards[s], "r");
+			}
+			out.write(header);
+			out.write(System.lineSeparator().getBytes(StandardCharsets.UTF_8));
+			byte[] buffer = new byte[1 << 16];
+			for (String id : order) {
+				long[] row = rows.get(id);
+				RandomAccessFile shardFile = shardFiles[(int) row[0]];
+				shardFile.seek(row[1]);
+				int length = (int) row[2];
+				if (buffer.length < length) {
+					buffer = new byte[length];
+				}
+				shardFile.readFully(buffer, 0, length);
+				out.write(buffer, 0, length);
+			}
+		} finally {
+			out.close();
+			for (RandomAccessFile shardFile : shardFiles) {
+				if (shardFile != null) {
+					shardFile.close();
+				}
+			}
+		}
+	}
+
+	private static void report(String what, List<String> ids) {
+		System.out.println(what + ": " + ids.size());
+		for (int i = 0; i < Math.min(ids.size(), MAX_LISTED); i++) {
+			System.out.println("  " + ids.get(i));
+		}
+		if (ids.size() > MAX_LISTED) {
+			System.out.println("  ...");
+		}
+	}
+
+}
@@ -0,0 +1,146 @@
+/**
+ *
+ */
+package src.pipeline;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes feature rows as a csv file: a "filename,feature1,feature2,..." header
+ * followed by one line per document.
+ *
+ * @author svajjala
+ */
+public class CsvFeatureSink extends FeatureSink {
+
+	private final FileChannel channel;
+	private final BufferedWriter bw;
+	private final StringBuilder line = new StringBuilder();
+
+	/**
+	 * Rows are written in input order, with the schema of the first document.
+	 *
+	 * @param outputfilepath : the csv file to write
+	 * @throws IOException
+	 */
+	public CsvFeatureSink(String outputfilepath) throws IOException {
+		this(outputfilepath, 0);
+	}
+
+	/**
+	 * Rows are written in input order. With a resumeOffset, the existing file is
+	 * cut back to that many bytes and appended to, keeping its header.
+	 *
+	 * @param outputfilepath : the csv file to write
+	 * @param resumeOffset   : bytes of the existing file to keep (see
+	 *                       ProgressJournal.getCommittedOffset()), or 0 to start
+	 *                       afresh
+	 * @throws IOException
+	 */
+	public CsvFeatureSink(String outputfilepath, long resumeOffset) throws IOException {
+		this(outputfilepath, resumeOffset, null, true, DEFAULT_REORDER_WINDOW, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * @param outputfilepath : the csv file to write
+	 * @param resumeOffset   : bytes of the existing file to keep, or 0 to start
+	 *                       afresh
+	 * @param schema         : feature names, in column order, or null to take
+	 *                       them from the first row. Ignored when resuming.
+	 * @param ordered        : whether to write rows in input order
+	 * @param reorderWindow  : see FeatureSink
+	 * @param batchSize      : maximum number of rows written between flushes
+	 * @throws IOException
+	 */
+	public CsvFeatureSink(String outputfilepath, long resumeOffset, List<String> schema, boolean ordered,
+			int reorderWindow, int batchSize) throws IOException {
+		super(schema, ordered, reorderWindow, batchSize);
+		channel = FileChannel.open(Paths.get(outputfilepath), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		if (resumeOffset > channel.size()) {
+			channel.close();
+			throw new IOException(outputfilepath + " is shorter than the journaled " + resumeOffset + " bytes");
+		}
+		channel.truncate(resumeOffset);
+		if (resumeOffset > 0) {
+			resumeWithSchema(readSchema());
+		}
+		channel.position(resumeOffset);
+		bw = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), "UTF8"), 1 << 20);
+		start();
+	}
+
+	/**
+	 * Reads the feature names off the header of the existing file.
+	 */
+	private List<String> readSchema() throws IOException {
+		channel.position(0);
+		// Not closed: that would close the channel.
+		BufferedReader br = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), "UTF8"));
+		String header = br.readLine();
+		if (header == null || !header.startsWith("filename")) {
+			throw new IOException("No csv header to resume from");
+		}
+		List<String> columns = new ArrayList<String>(Arrays.asList(header.split(",")));
+		return columns.subList(1, columns.size());
+	}
+
+	@Override
+	protected void writeHeader(List<String> featureNames) throws IOException {
+		line.setLength(0);
+		line.append("filename");
+		for (String s : featureNames) {
+			line.append(',').append(s);
+		}
+		bw.write(line.toString());
+		bw.newLine();
+	}
+
+	@Override
+	protected void writeRow(String id, double[] values) throws IOException {
+		line.setLength(0);
+		line.append(id);
+		for (double value : values) {
+			line.append(',').append(value);
+		}
+		bw.write(line.toString());
+		bw.newLine();
+	}
+
+	@Override
+	protected void flush() throws IOException {
+		bw.flush();
+	}
+
+	@Override
+	protected void sync() throws IOException {
+		channel.force(false);
+	}
+
+	@Override
+	public boolean canJournal() {
+		return true;
+	}
+
+	@Override
+	protected long getOutputPosition() throws IOException {
+		return channel.position();
+	}
+
+	@Override
+	protected void closeOutput() throws IOException {
+		bw.close();
+	}
+
+}
@@ -0,0 +1,147 @@
+/**
+ *
+ */
+package src.pipeline;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import src.preprocessing.PreprocessText;
+
+/**
+ * Reads every file under a directory whose path (relative to the directory)
+ * matches a glob, such as "**.txt". Files are handed out in sorted path order,
+ * so runs over the same tree number documents the same way. The id of a
+ * document is its path, and its shard key the path relative to the directory
+ * (with "/" between names), so that machines that mount the corpus in
+ * different places agree on the shards.
+ *
+ * Each file is read in one go, memory mapped when it is large, decoded as
+ * UTF-8, and put on one line the way PreprocessText.getFileContent() does.
+ * Files that cannot be read are skipped with a message.
+ *
+ * @author svajjala
+ */
+public class DirectoryDocumentReader implements DocumentReader {
+
+	public static final String DEFAULT_GLOB = "**.txt";
+
+	/** Files larger than this are memory mapped instead of copied onto the heap. */
+	private static final long MAP_THRESHOLD = 1 << 20;
+
+	private final Path root;
+	private final List<Path> files;
+	private int nextFile = 0;
+	private long index = 0;
+
+	/**
+	 * Lists the matching files; their contents are read one at a time by next().
+	 *
+	 * @param dirpath : the directory to walk, subdirectories included
+	 * @param glob    : pattern for the paths relative to dirpath
+	 * @throws IOException
+	 */
+	public DirectoryDocumentReader(String dirpath, String glob) throws IOException {
+		root = Paths.get(dirpath);
+		PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+		List<Path> matching = new ArrayList<Path>();
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (attrs.isRegularFile() && matcher.matches(root.relativize(file))) {
+					matching.add(file);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException exc) {
+				System.out.println("Cannot read: " + file + " " + exc.toString());
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		Collections.sort(matching);
+		files = matching;
+	}
+
+	/**
+	 * @return the number of matching files.
+	 */
+	public int getNumFiles() {
+		return files.size();
+	}
+
+	/**
+	 * @return the shard keys of all the documents, in order, without reading any
+	 *         file.
+	 */
+	public List<String> getShardKeys() {
+		List<String> keys = new ArrayList<String>(files.size());
+		for (Path file : files) {
+			keys.add(getShardKey(file));
+		}
+		return keys;
+	}
+
+	private String getShardKey(Path file) {
+		StringBuilder key = new StringBuilder();
+		for (Path name : root.relativize(file)) {
+			if (key.length() > 0) {
+				key.append('/');
+			}
+			key.append(name.toString());
+		}
+		return key.toString();
+	}
+
+	@Override
+	public InputDocument next() throws Exception {
+		while (nextFile < files.size()) {
+			Path file = files.get(nextFile++);
+			String text;
+			try {
+				text = PreprocessText.joinLines(read(file));
+			} catch (IOException ex) {
+				System.out.println("Error while reading the file: " + file + " " + ex.toString());
+				continue;
+			}
+			return new InputDocument(index++, file.toString(), getShardKey(file), text);
+		}
+		return null;
+	}
+
+	private static CharSequence read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < MAP_THRESHOLD) {
+				ByteBuffer buffer = ByteBuffer.allocate((int) size);
+				while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				}
+				buffer.flip();
+				return StandardCharsets.UTF_8.decode(buffer);
+			}
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			return StandardCharsets.UTF_8.decode(mapped);
+		}
+	}
+
+	@Override
+	public void close() {
+	}
+
+}
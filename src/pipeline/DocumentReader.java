@@ -0,0 +1,22 @@
+/**
+ *
+ */
+package src.pipeline;
+
+import java.io.Closeable;
+
+/**
+ * A source of documents that hands them out one at a time, so that an input
+ * never has to be held in memory as a whole.
+ *
+ * @author svajjala
+ */
+public interface DocumentReader extends Closeable {
+
+	/**
+	 * @return the next document, or null when the input is exhausted.
+	 * @throws Exception
+	 */
+	InputDocument next() throws Exception;
+
+}
@@ -0,0 +1,112 @@
+/**
+ *
+ */
+package src.pipeline;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A persisted dictionary of feature indexes for SVMLight style outputs. Once a
+ * feature name has an index it keeps it in every later run that uses the same
+ * file, whatever other features are added, removed or missing. New names get
+ * the next free indexes, in name order, and are appended to the file at once.
+ *
+ * The file has one "index\tname" line per feature. Indexes start at 1.
+ *
+ * @author svajjala
+ */
+public class FeatureIndexRegistry implements Closeable {
+
+	private final HashMap<String, Integer> indexes = new HashMap<String, Integer>();
+	private int maxIndex = 0;
+	private final BufferedWriter bw;
+
+	/**
+	 * Loads the registry, creating the file if needed.
+	 *
+	 * @param registrypath : the registry file
+	 * @throws IOException
+	 */
+	public FeatureIndexRegistry(String registrypath) throws IOException {
+		if (new File(registrypath).exists()) {
+			BufferedReader br = new BufferedReader(
+					new InputStreamReader(new FileInputStream(registrypath), "UTF8"));
+			try {
+				String line;
+				while ((line = br.readLine()) != null) {
+					if (line.trim().isEmpty()) {
+						continue;
+					}
+					int tab = line.indexOf('\t');
+					int index = Integer.parseInt(line.substring(0, tab));
+					indexes.put(line.substring(tab + 1), index);
+					maxIndex = Math.max(maxIndex, index);
+				}
+			} finally {
+				br.close();
+			}
+		}
+		bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(registrypath, true), "UTF8"));
+	}
+
+	/**
+	 * @param featureName : a feature name
+	 * @return its index, or -1 if it has none yet.
+	 */
+	public synchronized int getIndex(String featureName) {
+		Integer index = indexes.get(featureName);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * Gives indexes to the names that have none, in name order, and saves them.
+	 *
+	 * @param featureNames : feature names
+	 * @throws IOException
+	 */
+	public synchronized void register(Collection<String> featureNames) throws IOException {
+		List<String> newNames = new ArrayList<String>();
+		for (String name : featureNames) {
+			if (!indexes.containsKey(name)) {
+				newNames.add(name);
+			}
+		}
+		if (newNames.isEmpty()) {
+			return;
+		}
+		Collections.sort(newNames);
+		for (String name : newNames) {
+			maxIndex++;
+			indexes.put(name, maxIndex);
+			bw.write(maxIndex + "\t" + name);
+			bw.newLine();
+		}
+		bw.flush();
+	}
+
+	/**
+	 * @return the number of registered features.
+	 */
+	public synchronized int size() {
+		return indexes.size();
+	}
+
+	@Override
+	public void close() throws IOException {
+		bw.close();
+	}
+
+}
@@ -0,0 +1,196 @@
+/**
+ *
+ */
+package src.pipeline;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Reads a feature matrix written by MatrixFeatureSink. The file is memory
+ * mapped, one mapping per block, so loading a column reads only that column's
+ * part of each block and nothing is parsed.
+ *
+ * @author svajjala
+ */
+public class FeatureMatrixReader implements Closeable {
+
+	private final FileChannel channel;
+	private final List<String> featureNames;
+	private final HashMap<String, Integer> columnIndex = new HashMap<String, Integer>();
+	private final List<String> documentIds;
+	private final int numRows;
+	private final int blockRows;
+	private final DoubleBuffer[] blocks;
+
+	/**
+	 * @param matrixpath : a file written by MatrixFeatureSink
+	 * @throws IOException if it is not one
+	 */
+	public FeatureMatrixReader(String matrixpath) throws IOException {
+		channel = FileChannel.open(Paths.get(matrixpath), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size < MatrixFeatureSink.TRAILER_BYTES + MatrixFeatureSink.MAGIC.length + 12) {
+				throw new IOException(matrixpath + " is not a feature matrix");
+			}
+			ByteBuffer trailer = map(size - MatrixFeatureSink.TRAILER_BYTES, MatrixFeatureSink.TRAILER_BYTES);
+			long footerOffset = trailer.getLong();
+			long rows = trailer.getLong();
+			checkMagic(trailer, MatrixFeatureSink.END_MAGIC, matrixpath);
+			numRows = (int) rows;
+
+			ByteBuffer header = map(0, (int) Math.min(size, Integer.MAX_VALUE));
+			checkMagic(header, MatrixFeatureSink.MAGIC, matrixpath);
+			int version = header.getInt();
+			if (version != MatrixFeatureSink.VERSION) {
+				throw new IOException(matrixpath + " has unknown version " + version);
+			}
+			int numColumns = header.getInt();
+			blockRows = header.getInt();
+			List<String> names = new ArrayList<String>(numColumns);
+			for (int c = 0; c < numColumns; c++) {
+				names.add(getString(header));
+				columnIndex.put(names.get(c), c);
+			}
+			featureNames = Collections.unmodifiableList(names);
+			long dataOffset = MatrixFeatureSink.padTo8(header.position());
+
+			int numBlocks = blockRows == 0 ? 0 : (numRows + blockRows - 1) / blockRows;
+			blocks = new DoubleBuffer[numBlocks];
+			long blockOffset = dataOffset;
+			for (int b = 0; b < numBlocks; b++) {
+				int bytes = getRowsInBlock(b) * numColumns * 8;
+				blocks[b] = map(blockOffset, bytes).asDoubleBuffer();
+				blockOffset += bytes;
+			}
+
+			ByteBuffer footer = map(footerOffset, (int) (size - MatrixFeatureSink.TRAILER_BYTES - footerOffset));
+			List<String> ids = new ArrayList<String>(numRows);
+			for (int r = 0; r < numRows; r++) {
+				ids.add(getString(footer));
+			}
+			documentIds = Collections.unmodifiableList(ids);
+		} catch (IOException | RuntimeException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	private ByteBuffer map(long offset, int length) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static void checkMagic(ByteBuffer buffer, byte[] magic, String matrixpath) throws IOException {
+		byte[] found = new byte[magic.length];
+		buffer.get(found);
+		if (!Arrays.equals(found, magic)) {
+			throw new IOException(matrixpath + " is not a feature matrix");
+		}
+	}
+
+	private static String getString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private int getRowsInBlock(int block) {
+		return Math.min(blockRows, numRows - block * blockRows);
+	}
+
+	public int getNumRows() {
+		return numRows;
+	}
+
+	public int getNumColumns() {
+		return featureNames.size();
+	}
+
+	/**
+	 * @return feature names, in column order.
+	 */
+	public List<String> getFeatureNames() {
+		return featureNames;
+	}
+
+	/**
+	 * @return document ids, in row order.
+	 */
+	public List<String> getDocumentIds() {
+		return documentIds;
+	}
+
+	/**
+	 * @param featureName : a feature name
+	 * @return its column, or -1 if the matrix has no such feature.
+	 */
+	public int getColumnIndex(String featureName) {
+		Integer column = columnIndex.get(featureName);
+		return column == null ? -1 : column;
+	}
+
+	/**
+	 * @param column : a column number
+	 * @return the values of the column, one per row.
+	 */
+	public double[] getColumn(int column) {
+		double[] values = new double[numRows];
+		for (int b = 0; b < blocks.length; b++) {
+			int rowsInBlock = getRowsInBlock(b);
+			DoubleBuffer block = blocks[b].duplicate();
+			block.position(column * rowsInBlock);
+			block.get(values, b * blockRows, rowsInBlock);
+		}
+		return values;
+	}
+
+	/**
+	 * @param featureName : a feature name
+	 * @return the values of the feature, one per row.
+	 */
+	public double[] getColumn(String featureName) {
+		int column = getColumnIndex(featureName);
+		if (column < 0) {
+			throw new IllegalArgumentException("No such feature: " + featureName);
+		}
+		return getColumn(column);
+	}
+
+	/**
+	 * @return one value.
+	 */
+	public double get(int row, int column) {
+		int b = row / blockRows;
+		return blocks[b].get(column * getRowsInBlock(b) + row % blockRows);
+	}
+
+	/**
+	 * @return all the values of a row, in column order.
+	 */
+	public double[] getRow(int row) {
+		double[] values = new double[getNumColumns()];
+		for (int c = 0; c < values.length; c++) {
+			values[c] = get(row, c);
+		}
+		return values;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
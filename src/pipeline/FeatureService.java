@@ -0,0 +1,321 @@
+/**
+ *
+ */
+package src.pipeline;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import src.preprocessing.AnnotatedDocument;
+import src.utils.genutils.RunMetrics;
+
+/**
+ * Extracts features for texts that arrive one by one, from any number of
+ * threads, on a fixed set of long running workers. It is meant for services
+ * (see FeatureServer): the models are loaded once, and requests only pay for
+ * their own texts.
+ *
+ * Submitted texts wait in one queue. A worker takes the first text waiting
+ * and, only while no other worker is idle, its share of those still queued, up
+ * to the batch size, and runs them as a micro-batch: identical texts in a batch
+ * are computed once, and a saturated service moves texts to the workers in
+ * batches instead of one at a time. Texts are never batched on one worker
+ * while another could run them in parallel. With a batch wait above 0, a
+ * worker also waits that long for a batch to fill (again only while no other
+ * worker is idle); by default it does not, so a lone text is never held back.
+ *
+ * The texts of one request are submitted separately, so a batch request is
+ * spread over all the workers.
+ *
+ * With a pending limit set, trySubmitAll() refuses texts once that many are
+ * queued or running, so a burst of requests cannot grow the queue without
+ * bound; callers that limit themselves (FeatureCoprocess) use submit().
+ *
+ * @author svajjala
+ */
+public class FeatureService {
+
+	public static final int DEFAULT_BATCH_SIZE = 8;
+
+	private static final Job STOP = new Job(null, 0);
+
+	private final StagedPipeline.Annotator annotator;
+	private final StagedPipeline.Extractor extractor;
+	private final int maxBatchSize;
+	private final long batchWaitNanos;
+	private final LinkedBlockingQueue<Job> queue = new LinkedBlockingQueue<Job>();
+	private final List<Thread> workers = new ArrayList<Thread>();
+	// Workers waiting for a text.
+	private final AtomicInteger idleWorkers = new AtomicInteger();
+	// Texts submitted and not finished yet.
+	private final AtomicInteger numPending = new AtomicInteger();
+	private volatile int maxPending = 0;
+	private RunMetrics metrics;
+
+	private final AtomicLong numSubmitted = new AtomicLong();
+	private final AtomicLong numBatches = new AtomicLong();
+	private final AtomicLong numBatched = new AtomicLong();
+	private final AtomicLong numDuplicates = new AtomicLong();
+	private final AtomicLong numFailed = new AtomicLong();
+	private final AtomicLong numRejected = new AtomicLong();
+
+	/**
+	 * Starts the workers.
+	 *
+	 * @param annotator       : computes the annotation layers of a text
+	 * @param extractor       : computes the features of an annotated text
+	 * @param workerThreads   : number of workers
+	 * @param maxBatchSize    : most texts a worker takes at a time
+	 * @param batchWaitMillis : how long a worker waits for a batch to fill, 0 to
+	 *                        take only what is already queued
+	 */
+	public FeatureService(StagedPipeline.Annotator annotator, StagedPipeline.Extractor extractor, int workerThreads,
+			int maxBatchSize, long batchWaitMillis) {
+		if (workerThreads < 1 || maxBatchSize < 1) {
+			throw new IllegalArgumentException(
+					"Need at least one worker and a batch size of at least 1: " + workerThreads + ", " + maxBatchSize);
+		}
+		this.annotator = annotator;
+		this.extractor = extractor;
+		this.maxBatchSize = maxBatchSize;
+		this.batchWaitNanos = TimeUnit.MILLISECONDS.toNanos(batchWaitMillis);
+		for (int i = 0; i < workerThreads; i++) {
+			Thread worker = new Thread(this::workerLoop, "feature-worker-" + (i + 1));
+			worker.setDaemon(true);
+			worker.start();
+			workers.add(worker);
+		}
+	}
+
+	/**
+	 * @param metrics : where to record queue, preprocess and extract latencies and
+	 *                finished documents, or null
+	 */
+	public void setMetrics(RunMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @param maxPending : most texts trySubmitAll() lets be queued or running at
+	 *                   once, 0 for no limit
+	 */
+	public void setMaxPending(int maxPending) {
+		this.maxPending = maxPending;
+	}
+
+	public int getMaxPending() {
+		return maxPending;
+	}
+
+	/**
+	 * Queues a text, whatever the pending limit.
+	 *
+	 * @param id   : an id for the text, used in error messages
+	 * @param text : the text
+	 * @return its features, once a worker has computed them, or the exception
+	 *         that stopped it.
+	 */
+	public CompletableFuture<TreeMap<String, Double>> submit(String id, String text) {
+		numPending.incrementAndGet();
+		return enqueue(id, text);
+	}
+
+	/**
+	 * Queues all the texts of a request, or none of them if that would take the
+	 * pending texts over the limit.
+	 *
+	 * @param id    : an id for the texts, used in error messages
+	 * @param texts : the texts
+	 * @return their features, as submit() gives them, in the order given; null if
+	 *         the texts were refused.
+	 */
+	public List<CompletableFuture<TreeMap<String, Double>>> trySubmitAll(String id, List<String> texts) {
+		int limit = maxPending;
+		while (true) {
+			int pending = numPending.get();
+			if (limit > 0 && pending + texts.size() > limit) {
+				numRejected.addAndGet(texts.size());
+				return null;
+			}
+			if (numPending.compareAndSet(pending, pending + texts.size())) {
+				break;
+			}
+		}
+		List<CompletableFuture<TreeMap<String, Double>>> results = new ArrayList<CompletableFuture<TreeMap<String, Double>>>();
+		for (int i = 0; i < texts.size(); i++) {
+			results.add(enqueue(id + "#" + i, texts.get(i)));
+		}
+		return results;
+	}
+
+	/**
+	 * Queues a text already counted as pending.
+	 */
+	private CompletableFuture<TreeMap<String, Double>> enqueue(String id, String text) {
+		Job job = new Job(new InputDocument(numSubmitted.getAndIncrement(), id, text), System.nanoTime());
+		job.result.whenComplete((features, ex) -> numPending.decrementAndGet());
+		queue.add(job);
+		return job.result;
+	}
+
+	/**
+	 * @return texts waiting for a worker.
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * @return texts submitted, batches run and their average size, duplicates
+	 *         saved, failures, refused texts and the queue depth.
+	 */
+	public String getStats() {
+		long batches = numBatches.get();
+		return "submitted " + numSubmitted.get() + ", batches " + batches + " (average size "
+				+ String.format("%.2f", batches == 0 ? 0.0 : (double) numBatched.get() / batches) + ")"
+				+ ", duplicates in a batch " + numDuplicates.get() + ", failed " + numFailed.get()
+				+ ", rejected " + numRejected.get() + ", queue depth " + queue.size();
+	}
+
+	/**
+	 * @return the numbers of getStats(), one field each.
+	 */
+	public HashMap<String, Number> getStatsMap() {
+		HashMap<String, Number> stats = new HashMap<String, Number>();
+		stats.put("submitted", numSubmitted.get());
+		stats.put("batches", numBatches.get());
+		stats.put("batched", numBatched.get());
+		stats.put("duplicates", numDuplicates.get());
+		stats.put("failed", numFailed.get());
+		stats.put("rejected", numRejected.get());
+		stats.put("pending", numPending.get());
+		stats.put("queue_depth", queue.size());
+		stats.put("workers", workers.size());
+		return stats;
+	}
+
+	/**
+	 * Lets the workers finish the texts already queued, and stops them.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void close() throws InterruptedException {
+		for (int i = 0; i < workers.size(); i++) {
+			queue.add(STOP);
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+	}
+
+	private void workerLoop() {
+		try {
+			boolean stopping = false;
+			while (!stopping) {
+				idleWorkers.incrementAndGet();
+				Job first;
+				try {
+					first = queue.take();
+				} finally {
+					idleWorkers.decrementAndGet();
+				}
+				if (first == STOP) {
+					return;
+				}
+				List<Job> batch = new ArrayList<Job>();
+				batch.add(first);
+				long deadline = System.nanoTime() + batchWaitNanos;
+				// An idle worker runs the next text sooner than this one would, and a worker
+				// takes no more than its share of the queue, so that a burst is spread over
+				// all the workers as they get free.
+				while (batch.size() < maxBatchSize && idleWorkers.get() == 0
+						&& (long) batch.size() * workers.size() <= queue.size()) {
+					long left = deadline - System.nanoTime();
+					Job next = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : queue.poll();
+					if (next == null) {
+						break;
+					}
+					if (next == STOP) {
+						stopping = true;
+						break;
+					}
+					batch.add(next);
+				}
+				runBatch(batch);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void runBatch(List<Job> batch) {
+		numBatches.incrementAndGet();
+		numBatched.addAndGet(batch.size());
+		HashMap<String, CompletableFuture<TreeMap<String, Double>>> done = new HashMap<String, CompletableFuture<TreeMap<String, Double>>>();
+		for (Job job : batch) {
+			if (metrics != null) {
+				metrics.recordSince(RunMetrics.QUEUE, job.submitNanos);
+			}
+			String text = job.doc.getText();
+			CompletableFuture<TreeMap<String, Double>> same = done.get(text);
+			if (same != null) {
+				numDuplicates.incrementAndGet();
+				same.whenComplete((features, ex) -> {
+					if (ex != null) {
+						job.result.completeExceptionally(ex);
+					} else {
+						job.result.complete(new TreeMap<String, Double>(features));
+					}
+				});
+				continue;
+			}
+			done.put(text, job.result);
+			run(job);
+		}
+	}
+
+	private void run(Job job) {
+		long start = System.nanoTime();
+		try {
+			AnnotatedDocument annotated = annotator.annotate(job.doc);
+			if (metrics != null) {
+				metrics.recordSince(RunMetrics.PREPROCESS, start);
+			}
+			start = System.nanoTime();
+			TreeMap<String, Double> features = extractor.extract(job.doc, annotated);
+			if (metrics != null) {
+				metrics.recordSince(RunMetrics.EXTRACT, start);
+				metrics.addDocument();
+			}
+			job.result.complete(features);
+		} catch (Throwable e) {
+			// Also errors: the caller waits on the future, so it must complete.
+			System.out.println("Feature extraction failed for: " + job.doc.getFilepath());
+			e.printStackTrace();
+			numFailed.incrementAndGet();
+			job.result.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * A queued text and where its features go.
+	 */
+	private static class Job {
+		private final InputDocument doc;
+		private final long submitNanos;
+		private final CompletableFuture<TreeMap<String, Double>> result = new CompletableFuture<TreeMap<String, Double>>();
+
+		Job(InputDocument doc, long submitNanos) {
+			this.doc = doc;
+			this.submitNanos = submitNanos;
+		}
+	}
+
+}
@@ -0,0 +1,367 @@
+/**
+ *
+ */
+package src.pipeline;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Collects feature rows from any number of worker threads and writes them
+ * from a single background thread, in large batches.
+ *
+ * In ordered mode, rows are written in input order (by document index) no
+ * matter in which order the workers finish. Rows that arrive early wait in a
+ * reorder buffer; a worker that runs more than reorderWindow documents ahead of
+ * the oldest unfinished one blocks until that one is written. Workers must call
+ * skip() for documents they give up on, otherwise the output stalls at that
+ * document.
+ *
+ * The column schema is fixed: it is either given to the constructor or taken
+ * from the first row written. Features missing from a later row are written as
+ * NaN, and features the schema does not know are dropped with a warning.
+ *
+ * With a ProgressJournal set, every batch is synced to disk and journaled
+ * after it is written, so that an interrupted run can be resumed.
+ *
+ * Subclasses implement the actual output format.
+ *
+ * @author svajjala
+ */
+public abstract class FeatureSink {
+
+	public static final int DEFAULT_REORDER_WINDOW = 1024;
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	private static final Row END = new Row(null, null);
+	private static final Row SKIPPED = new Row(null, null);
+
+	private final boolean ordered;
+	private final int reorderWindow;
+	private final int batchSize;
+
+	private final Object lock = new Object();
+	private final TreeMap<Long, Row> pending = new TreeMap<Long, Row>();
+	private long nextIndex = 0;
+	private volatile int pendingSize = 0;
+
+	private final BlockingQueue<Row> queue;
+	private final Thread writerThread;
+	private volatile Exception writerError;
+	private boolean closed = false;
+
+	private List<String> schema;
+	private boolean headerWritten = false;
+	private boolean warnedAboutUnknownFeatures = false;
+	private volatile ProgressJournal journal;
+
+	/**
+	 * @param schema        : feature names, in column order, or null to take them
+	 *                      from the first row
+	 * @param ordered       : whether to write rows in input order
+	 * @param reorderWindow : how far (in documents) workers may run ahead of the
+	 *                      oldest unwritten document, in ordered mode
+	 * @param batchSize     : maximum number of rows written between flushes
+	 */
+	protected FeatureSink(List<String> schema, boolean ordered, int reorderWindow, int batchSize) {
+		this.schema = schema == null ? null : new ArrayList<String>(schema);
+		this.ordered = ordered;
+		this.reorderWindow = reorderWindow;
+		this.batchSize = batchSize;
+		this.queue = new ArrayBlockingQueue<Row>(4 * batchSize);
+		this.writerThread = new Thread(this::writeLoop, "feature-sink");
+		this.writerThread.setDaemon(true);
+	}
+
+	/**
+	 * For subclasses that append to an existing output: the header is already
+	 * there, with these columns. Must be called before start().
+	 *
+	 * @param existingSchema : feature names, in column order
+	 */
+	protected void resumeWithSchema(List<String> existingSchema) {
+		this.schema = new ArrayList<String>(existingSchema);
+		this.headerWritten = true;
+	}
+
+	/**
+	 * Journals every batch from now on. Set it before the first write().
+	 *
+	 * @param journal : the progress journal of this output
+	 * @throws UnsupportedOperationException if this sink cannot be journaled
+	 */
+	public void setJournal(ProgressJournal journal) {
+		if (!canJournal()) {
+			throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot be journaled");
+		}
+		this.journal = journal;
+	}
+
+	/**
+	 * @return whether the output can be journaled, i.e. cut back to the position
+	 *         after any flushed batch and appended to. Sinks that can override
+	 *         this and getOutputPosition().
+	 */
+	public boolean canJournal() {
+		return false;
+	}
+
+	/**
+	 * Starts the writer thread. Subclasses call this at the end of their
+	 * constructor, once their output is open.
+	 */
+	protected void start() {
+		writerThread.start();
+	}
+
+	/**
+	 * Hands a row to the sink. Safe to call from any thread.
+	 *
+	 * @param index    : position of the document in the input
+	 * @param id       : document id, written in the first column
+	 * @param features : feature names and values
+	 * @throws Exception if the writer thread failed
+	 */
+	public void write(long index, String id, TreeMap<String, Double> features) throws Exception {
+		offer(index, new Row(id, features));
+	}
+
+	/**
+	 * Tells the sink that no row will come for this document.
+	 *
+	 * @param index : position of the document in the input
+	 * @throws Exception if the writer thread failed
+	 */
+	public void skip(long index) throws Exception {
+		offer(index, SKIPPED);
+	}
+
+	private void offer(long index, Row row) throws Exception {
+		checkWriterError();
+		if (!ordered) {
+			if (row != SKIPPED) {
+				queue.put(row);
+			}
+			return;
+		}
+		synchronized (lock) {
+			waitForWindow(index);
+			pending.put(index, row);
+			boolean advanced = false;
+			// Rows leave the buffer under the lock, so that the queue sees them in order.
+			while (!pending.isEmpty() && pending.firstKey() == nextIndex) {
+				Row next = pending.pollFirstEntry().getValue();
+				nextIndex++;
+				advanced = true;
+				if (next != SKIPPED) {
+					queue.put(next);
+				}
+			}
+			pendingSize = pending.size();
+			if (advanced) {
+				lock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Blocks until a row for this document can be taken without waiting for
+	 * earlier documents. A reader that calls this before handing a document to
+	 * the workers keeps them from ever blocking in write(), however long one
+	 * document takes.
+	 *
+	 * @param index : position of the document in the input
+	 * @throws Exception if the writer thread failed
+	 */
+	public void awaitWindow(long index) throws Exception {
+		if (!ordered) {
+			checkWriterError();
+			return;
+		}
+		synchronized (lock) {
+			waitForWindow(index);
+		}
+	}
+
+	private void waitForWindow(long index) throws Exception {
+		checkWriterError();
+		while (index >= nextIndex + reorderWindow) {
+			lock.wait(1000);
+			checkWriterError();
+		}
+	}
+
+	/**
+	 * @return the number of rows handed to the sink but not written yet.
+	 */
+	public int getPendingRows() {
+		// Not under the lock: a producer may hold it while waiting for queue space.
+		return pendingSize + queue.size();
+	}
+
+	/**
+	 * Writes all remaining rows and closes the output. Rows still waiting for an
+	 * earlier document are written in index order, with a warning.
+	 *
+	 * @throws Exception if writing failed
+	 */
+	public void close() throws Exception {
+		synchronized (lock) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (!pending.isEmpty()) {
+				System.out.println("FeatureSink: documents from index " + nextIndex
+						+ " on never arrived; writing the " + pending.size() + " rows after them anyway.");
+				for (Row row : pending.values()) {
+					if (row != SKIPPED) {
+						queue.put(row);
+					}
+				}
+				pending.clear();
+				pendingSize = 0;
+			}
+		}
+		queue.put(END);
+		writerThread.join();
+		checkWriterError();
+	}
+
+	private void checkWriterError() throws Exception {
+		if (writerError != null) {
+			throw new IOException("Writing features failed", writerError);
+		}
+	}
+
+	private void writeLoop() {
+		List<Row> batch = new ArrayList<Row>(batchSize);
+		List<String> batchIds = new ArrayList<String>(batchSize);
+		try {
+			boolean done = false;
+			while (!done) {
+				batch.clear();
+				batchIds.clear();
+				batch.add(queue.take());
+				queue.drainTo(batch, batchSize - 1);
+				for (Row row : batch) {
+					if (row == END) {
+						done = true;
+						break;
+					}
+					emit(row);
+					batchIds.add(row.id);
+				}
+				flush();
+				ProgressJournal currentJournal = journal;
+				if (currentJournal != null && !batchIds.isEmpty()) {
+					sync();
+					currentJournal.record(batchIds, getOutputPosition());
+				}
+			}
+			if (!headerWritten && schema != null) {
+				writeHeader(schema);
+			}
+			closeOutput();
+		} catch (Exception ex) {
+			writerError = ex;
+			synchronized (lock) {
+				lock.notifyAll();
+			}
+			// Keep draining so that producers blocked on the queue notice the error.
+			try {
+				while (queue.take() != END) {
+				}
+			} catch (InterruptedException ie) {
+			}
+		}
+	}
+
+	private void emit(Row row) throws IOException {
+		if (schema == null) {
+			schema = new ArrayList<String>(row.features.keySet());
+		}
+		if (!headerWritten) {
+			writeHeader(schema);
+			headerWritten = true;
+		}
+		double[] values = new double[schema.size()];
+		for (int i = 0; i < values.length; i++) {
+			Double value = row.features.get(schema.get(i));
+			values[i] = value == null ? Double.NaN : value;
+		}
+		if (!warnedAboutUnknownFeatures && row.features.size() > schema.size()) {
+			for (Map.Entry<String, Double> feature : row.features.entrySet()) {
+				if (!schema.contains(feature.getKey())) {
+					System.out.println("FeatureSink: dropping feature " + feature.getKey() + " (and possibly others)"
+							+ ", it is not in the schema");
+					warnedAboutUnknownFeatures = true;
+					break;
+				}
+			}
+		}
+		writeRow(row.id, values);
+	}
+
+	/**
+	 * @return the column schema, or null if no row has been written yet.
+	 */
+	protected List<String> getSchema() {
+		return schema;
+	}
+
+	/**
+	 * Writes the header once, before the first row.
+	 *
+	 * @param featureNames : feature names in column order
+	 */
+	protected abstract void writeHeader(List<String> featureNames) throws IOException;
+
+	/**
+	 * Writes one row.
+	 *
+	 * @param id     : document id
+	 * @param values : feature values, in schema order
+	 */
+	protected abstract void writeRow(String id, double[] values) throws IOException;
+
+	/**
+	 * Called after every batch.
+	 */
+	protected abstract void flush() throws IOException;
+
+	/**
+	 * Forces what has been flushed to disk. Only called when journaling.
+	 */
+	protected void sync() throws IOException {
+	}
+
+	/**
+	 * @return the length of the output after the last flush(). Only called when
+	 *         journaling, which setJournal() allows only if canJournal().
+	 */
+	protected long getOutputPosition() throws IOException {
+		throw new IllegalStateException(getClass().getSimpleName() + " is not journaled");
+	}
+
+	/**
+	 * Called once, after the last row.
+	 */
+	protected abstract void closeOutput() throws IOException;
+
+	private static class Row {
+		private final String id;
+		private final TreeMap<String, Double> features;
+
+		Row(String id, TreeMap<String, Double> features) {
+			this.id = id;
+			this.features = features;
+		}
+	}
+
+}
@@ -0,0 +1,57 @@
+/**
+ *
+ */
+package src.pipeline;
+
+import java.io.IOException;
+import java.util.function.Predicate;
+
+/**
+ * Passes on only the documents of another reader that match a filter, for
+ * instance those not done yet by an earlier run. The documents passed on are
+ * numbered afresh from 0, since the sink expects consecutive indexes; their
+ * relative order is kept.
+ *
+ * @author svajjala
+ */
+public class FilteredDocumentReader implements DocumentReader {
+
+	private final DocumentReader reader;
+	private final Predicate<InputDocument> filter;
+	private long index = 0;
+	private long numFiltered = 0;
+
+	/**
+	 * @param reader : the documents to filter
+	 * @param filter : true for the documents to keep
+	 */
+	public FilteredDocumentReader(DocumentReader reader, Predicate<InputDocument> filter) {
+		this.reader = reader;
+		this.filter = filter;
+	}
+
+	@Override
+	public InputDocument next() throws Exception {
+		InputDocument doc;
+		while ((doc = reader.next()) != null) {
+			if (filter.test(doc)) {
+				return new InputDocument(index++, doc.getFilepath(), doc.getShardKey(), doc.getText());
+			}
+			numFiltered++;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the number of documents left out so far.
+	 */
+	public long getNumFiltered() {
+		return numFiltered;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+}
@@ -0,0 +1,60 @@
+/**
+ *
+ */
+package src.pipeline;
+
+/**
+ * One document to extract features for: its id (the file path it came from),
+ * its text, and its position in the input. Its shard key is the id relative to
+ * the input (for files, the path below the input directory), so that it does
+ * not depend on where the input is mounted.
+ *
+ * @author svajjala
+ */
+public class InputDocument {
+
+	private final long index;
+	private final String filepath;
+	private final String shardKey;
+	private final String text;
+
+	/**
+	 * A document whose shard key is its id.
+	 */
+	public InputDocument(long index, String filepath, String text) {
+		this(index, filepath, filepath, text);
+	}
+
+	public InputDocument(long index, String filepath, String shardKey, String text) {
+		this.index = index;
+		this.filepath = filepath;
+		this.shardKey = shardKey;
+		this.text = text;
+	}
+
+	/**
+	 * @return position of the document in the input, starting at 0.
+	 */
+	public long getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return the id of the document.
+	 */
+	public String getFilepath() {
+		return filepath;
+	}
+
+	/**
+	 * @return the id of the document relative to the input, for ShardSpec.
+	 */
+	public String getShardKey() {
+		return shardKey;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+}
@@ -0,0 +1,199 @@
+/**
+ *
+ */
+package src.pipeline;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Streams {filepath, text} records out of a JSON file, one at a time. Two
+ * layouts are accepted and told apart by the first character of the file:
+ *
+ * - a JSON array of objects, as written by jsonCombiner.py. The array is read
+ * with the event based json-simple parser, which pauses after every element,
+ * so only one record is in memory at a time.
+ *
+ * - JSON lines: one object per line.
+ *
+ * Records without a "filepath" get their position in the input as id.
+ *
+ * @author svajjala
+ */
+public class JsonDocumentReader implements DocumentReader {
+
+	private final BufferedReader reader;
+	private final boolean jsonLines;
+	private final JSONParser parser = new JSONParser();
+	private final RecordHandler handler = new RecordHandler();
+	private boolean started = false;
+	private long index = 0;
+
+	/**
+	 * @param jsonpath : a .json file holding an array of records, or a .jsonl
+	 *                 file with one record per line.
+	 * @throws IOException
+	 */
+	public JsonDocumentReader(String jsonpath) throws IOException {
+		reader = new BufferedReader(new InputStreamReader(new FileInputStream(jsonpath), "UTF8"), 1 << 16);
+		jsonLines = firstNonWhitespace() != '[';
+	}
+
+	/**
+	 * Peeks at the first character that is not whitespace.
+	 */
+	private int firstNonWhitespace() throws IOException {
+		while (true) {
+			reader.mark(1);
+			int c = reader.read();
+			if (c == -1 || !Character.isWhitespace(c)) {
+				reader.reset();
+				return c;
+			}
+		}
+	}
+
+	@Override
+	public InputDocument next() throws Exception {
+		JSONObject record = jsonLines ? nextLine() : nextArrayElement();
+		if (record == null) {
+			return null;
+		}
+		Object filepath = record.get("filepath");
+		Object text = record.get("text");
+		InputDocument document = new InputDocument(index, filepath == null ? String.valueOf(index) : filepath.toString(),
+				text == null ? "" : text.toString());
+		index++;
+		return document;
+	}
+
+	private JSONObject nextLine() throws Exception {
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (!line.trim().isEmpty()) {
+				return (JSONObject) parser.parse(line);
+			}
+		}
+		return null;
+	}
+
+	private JSONObject nextArrayElement() throws Exception {
+		handler.record = null;
+		while (handler.record == null && !handler.finished) {
+			parser.parse(reader, handler, started);
+			started = true;
+		}
+		return handler.record;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	/**
+	 * Builds the objects of the top level array and pauses the parser after each
+	 * one.
+	 */
+	private static class RecordHandler implements ContentHandler {
+		private final Deque<Object> containers = new ArrayDeque<Object>();
+		private final Deque<String> keys = new ArrayDeque<String>();
+		private boolean inTopLevelArray = false;
+		private JSONObject record;
+		private boolean finished = false;
+
+		@Override
+		public void startJSON() {
+		}
+
+		@Override
+		public void endJSON() {
+			finished = true;
+		}
+
+		@Override
+		public boolean startObject() {
+			containers.push(new JSONObject());
+			return true;
+		}
+
+		@Override
+		public boolean endObject() {
+			return endContainer();
+		}
+
+		@Override
+		public boolean startArray() {
+			if (!inTopLevelArray && containers.isEmpty()) {
+				inTopLevelArray = true;
+			} else {
+				containers.push(new JSONArray());
+			}
+			return true;
+		}
+
+		@Override
+		public boolean endArray() {
+			if (containers.isEmpty()) {
+				inTopLevelArray = false;
+				return true;
+			}
+			return endContainer();
+		}
+
+		@Override
+		public boolean startObjectEntry(String key) {
+			keys.push(key);
+			return true;
+		}
+
+		@Override
+		public boolean endObjectEntry() {
+			keys.pop();
+			return true;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public boolean primitive(Object value) throws ParseException {
+			Object parent = containers.peek();
+			if (parent instanceof JSONObject) {
+				((JSONObject) parent).put(keys.peek(), value);
+			} else if (parent instanceof JSONArray) {
+				((JSONArray) parent).add(value);
+			}
+			// Primitives directly in the top level array are not records; skip them.
+			return true;
+		}
+
+		/**
+		 * Closes the innermost container. Returns false, which pauses the parser,
+		 * when that completes a record.
+		 */
+		@SuppressWarnings("unchecked")
+		private boolean endContainer() {
+			Object container = containers.pop();
+			Object parent = containers.peek();
+			if (parent instanceof JSONObject) {
+				((JSONObject) parent).put(keys.peek(), container);
+			} else if (parent instanceof JSONArray) {
+				((JSONArray) parent).add(container);
+			} else if (container instanceof JSONObject) {
+				record = (JSONObject) container;
+				return false;
+			}
+			return true;
+		}
+	}
+
+}
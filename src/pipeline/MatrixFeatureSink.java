@@ -0,0 +1,186 @@
+/**
+ *
+ */
+package src.pipeline;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes feature rows as a binary matrix of doubles, block by block in column
+ * major order, so that a column can be loaded without parsing any text (see
+ * FeatureMatrixReader). All numbers are little endian.
+ *
+ * Layout:
+ *
+ * - header: the magic "FMATRIX1", int version, int number of columns, int rows
+ * per block, then each feature name as int byte length + UTF-8 bytes, padded
+ * with zeros to a multiple of 8 bytes.
+ *
+ * - blocks: rows per block rows at a time; within a block, all the values of
+ * column 0, then all of column 1, and so on. Only the last block may have fewer
+ * rows.
+ *
+ * - footer: each document id as int byte length + UTF-8 bytes.
+ *
+ * - trailer: long offset of the footer, long number of rows, and the magic
+ * "FMATEND1".
+ *
+ * @author svajjala
+ */
+public class MatrixFeatureSink extends FeatureSink {
+
+	public static final int VERSION = 1;
+	static final byte[] MAGIC = "FMATRIX1".getBytes(StandardCharsets.US_ASCII);
+	static final byte[] END_MAGIC = "FMATEND1".getBytes(StandardCharsets.US_ASCII);
+	static final int TRAILER_BYTES = 24;
+
+	public static final int DEFAULT_BLOCK_ROWS = 4096;
+
+	private final FileChannel channel;
+	private final int blockRows;
+	private final List<String> ids = new ArrayList<String>();
+	private int numColumns = -1;
+	private double[] block;
+	private int rowsInBlock = 0;
+	private ByteBuffer blockBuffer;
+
+	/**
+	 * Rows are written in input order, with the schema of the first document.
+	 *
+	 * @param outputfilepath : the file to write
+	 * @throws IOException
+	 */
+	public MatrixFeatureSink(String outputfilepath) throws IOException {
+		this(outputfilepath, null, true, DEFAULT_REORDER_WINDOW, DEFAULT_BATCH_SIZE, DEFAULT_BLOCK_ROWS);
+	}
+
+	/**
+	 * @param outputfilepath : the file to write
+	 * @param schema         : feature names, in column order, or null to take
+	 *                       them from the first row
+	 * @param ordered        : whether to write rows in input order
+	 * @param reorderWindow  : see FeatureSink
+	 * @param batchSize      : see FeatureSink
+	 * @param blockRows      : rows per block
+	 * @throws IOException
+	 */
+	public MatrixFeatureSink(String outputfilepath, List<String> schema, boolean ordered, int reorderWindow,
+			int batchSize, int blockRows) throws IOException {
+		super(schema, ordered, reorderWindow, batchSize);
+		this.blockRows = blockRows;
+		channel = FileChannel.open(Paths.get(outputfilepath), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		start();
+	}
+
+	@Override
+	protected void writeHeader(List<String> featureNames) throws IOException {
+		numColumns = featureNames.size();
+		List<byte[]> names = new ArrayList<byte[]>();
+		int length = MAGIC.length + 12;
+		for (String name : featureNames) {
+			byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			names.add(bytes);
+			length += 4 + bytes.length;
+		}
+		ByteBuffer header = newBuffer(padTo8(length));
+		header.put(MAGIC).putInt(VERSION).putInt(numColumns).putInt(blockRows);
+		for (byte[] name : names) {
+			header.putInt(name.length).put(name);
+		}
+		header.position(header.capacity());
+		writeFully(header);
+
+		block = new double[numColumns * blockRows];
+		blockBuffer = newBuffer(numColumns * blockRows * 8);
+	}
+
+	@Override
+	protected void writeRow(String id, double[] values) throws IOException {
+		for (int c = 0; c < numColumns; c++) {
+			block[c * blockRows + rowsInBlock] = values[c];
+		}
+		ids.add(id);
+		rowsInBlock++;
+		if (rowsInBlock == blockRows) {
+			writeBlock();
+		}
+	}
+
+	/**
+	 * Writes the rows collected so far as one block, column after column.
+	 */
+	private void writeBlock() throws IOException {
+		if (rowsInBlock == 0) {
+			return;
+		}
+		blockBuffer.clear();
+		for (int c = 0; c < numColumns; c++) {
+			blockBuffer.asDoubleBuffer().put(block, c * blockRows, rowsInBlock);
+			blockBuffer.position(blockBuffer.position() + rowsInBlock * 8);
+		}
+		writeFully(blockBuffer);
+		rowsInBlock = 0;
+	}
+
+	@Override
+	protected void flush() throws IOException {
+		// Blocks are written when full, so that each is one sequential write.
+	}
+
+	@Override
+	protected void closeOutput() throws IOException {
+		try {
+			if (numColumns < 0) {
+				writeHeader(new ArrayList<String>());
+			}
+			writeBlock();
+			long footerOffset = channel.position();
+			ByteBuffer footer = newBuffer(1 << 16);
+			for (String id : ids) {
+				byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+				if (footer.remaining() < 4 + bytes.length) {
+					writeFully(footer);
+					if (footer.capacity() < 4 + bytes.length) {
+						footer = newBuffer(4 + bytes.length);
+					}
+				}
+				footer.putInt(bytes.length).put(bytes);
+			}
+			writeFully(footer);
+			ByteBuffer trailer = newBuffer(TRAILER_BYTES);
+			trailer.putLong(footerOffset).putLong(ids.size()).put(END_MAGIC);
+			writeFully(trailer);
+		} finally {
+			channel.close();
+		}
+	}
+
+	private static ByteBuffer newBuffer(int capacity) {
+		return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	static int padTo8(int length) {
+		return (length + 7) & ~7;
+	}
+
+	/**
+	 * Writes the buffer from 0 up to its position.
+	 */
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+}
@@ -0,0 +1,148 @@
+/**
+ *
+ */
+package src.pipeline;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A durable record of which documents made it into the output file, so that a
+ * crashed run can be picked up where it stopped.
+ *
+ * After each batch of rows is flushed and synced to disk, the sink appends the
+ * ids of those rows followed by a checkpoint: the byte length of the output
+ * file at that point. The journal itself is synced too. On resume, only
+ * batches that reached their checkpoint count as done; the output file is cut
+ * back to the last checkpoint, which drops any half-written rows after it.
+ *
+ * The file is plain text: "D\t<id>" for a document, "C\t<offset>" for a
+ * checkpoint. Documents that failed are never journaled, so a resumed run tries
+ * them again.
+ *
+ * @author svajjala
+ */
+public class ProgressJournal implements Closeable {
+
+	private final Set<String> completed = new HashSet<String>();
+	private long committedOffset = 0;
+	private final FileOutputStream out;
+	private final FileChannel channel;
+
+	/**
+	 * @param journalpath : the journal file
+	 * @param resume      : whether to read an existing journal; if false, any
+	 *                    existing journal is emptied.
+	 * @throws IOException
+	 */
+	public ProgressJournal(String journalpath, boolean resume) throws IOException {
+		Path path = Paths.get(journalpath);
+		long validLength = 0;
+		if (resume && Files.exists(path)) {
+			validLength = load(Files.readAllBytes(path));
+		}
+		out = new FileOutputStream(journalpath, true);
+		channel = out.getChannel();
+		// Drops the ids of a batch whose checkpoint was never written.
+		channel.truncate(validLength);
+		channel.position(validLength);
+	}
+
+	/**
+	 * Reads the journal, and returns the length of the part that ends with a
+	 * checkpoint.
+	 */
+	private long load(byte[] bytes) {
+		List<String> batch = new ArrayList<String>();
+		long validLength = 0;
+		int lineStart = 0;
+		for (int i = 0; i < bytes.length; i++) {
+			if (bytes[i] != '\n') {
+				continue;
+			}
+			String line = new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8);
+			lineStart = i + 1;
+			if (line.startsWith("D\t")) {
+				batch.add(unescape(line.substring(2)));
+			} else if (line.startsWith("C\t")) {
+				completed.addAll(batch);
+				batch.clear();
+				committedOffset = Long.parseLong(line.substring(2));
+				validLength = lineStart;
+			}
+		}
+		return validLength;
+	}
+
+	/**
+	 * @return ids of the documents an earlier run put in the output. Not updated
+	 *         by record().
+	 */
+	public Set<String> getCompleted() {
+		return completed;
+	}
+
+	/**
+	 * @return the length of the output file at the last checkpoint; anything
+	 *         after it was not journaled.
+	 */
+	public synchronized long getCommittedOffset() {
+		return committedOffset;
+	}
+
+	/**
+	 * Records a batch of rows that has been synced to the output.
+	 *
+	 * @param ids    : the ids of the rows in the batch
+	 * @param offset : the length of the output file after the batch
+	 * @throws IOException
+	 */
+	public synchronized void record(List<String> ids, long offset) throws IOException {
+		StringBuilder entry = new StringBuilder();
+		for (String id : ids) {
+			entry.append("D\t").append(escape(id)).append('\n');
+		}
+		entry.append("C\t").append(offset).append('\n');
+		ByteBuffer buffer = ByteBuffer.wrap(entry.toString().getBytes(StandardCharsets.UTF_8));
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		channel.force(false);
+		committedOffset = offset;
+	}
+
+	private static String escape(String id) {
+		return id.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	private static String unescape(String id) {
+		StringBuilder result = new StringBuilder(id.length());
+		for (int i = 0; i < id.length(); i++) {
+			char c = id.charAt(i);
+			if (c == '\\' && i + 1 < id.length()) {
+				char next = id.charAt(++i);
+				result.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+			} else {
+				result.append(c);
+			}
+		}
+		return result.toString();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+}
@@ -0,0 +1,81 @@
+/**
+ *
+ */
+package src.pipeline;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One part of an input split across several processes or machines. A
+ * document belongs to shard i of N when a 64 bit FNV-1a hash of its shard key
+ * (InputDocument.getShardKey(): the path relative to the input directory),
+ * taken modulo N, is i. The hash depends on nothing but the key, not even on
+ * where the input is mounted, so every process agrees on the split without
+ * talking to the others, and the N shards together cover each document exactly
+ * once.
+ *
+ * @author svajjala
+ */
+public class ShardSpec {
+
+	/** The whole input. */
+	public static final ShardSpec ALL = new ShardSpec(0, 1);
+
+	private final int shard;
+	private final int numShards;
+
+	/**
+	 * @param shard     : which shard, from 0 to numShards - 1
+	 * @param numShards : how many shards the input is split into
+	 */
+	public ShardSpec(int shard, int numShards) {
+		if (numShards < 1 || shard < 0 || shard >= numShards) {
+			throw new IllegalArgumentException("Shard must be i/N with 0 <= i < N: " + shard + "/" + numShards);
+		}
+		this.shard = shard;
+		this.numShards = numShards;
+	}
+
+	/**
+	 * @param spec : "i/N", e.g. "0/4" for the first of four shards
+	 * @return the shard
+	 */
+	public static ShardSpec parse(String spec) {
+		String[] parts = spec.split("/");
+		if (parts.length != 2) {
+			throw new IllegalArgumentException("Shard must be i/N: " + spec);
+		}
+		return new ShardSpec(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+	}
+
+	/**
+	 * @param id : the shard key of a document
+	 * @return which shard the document belongs to.
+	 */
+	public int shardOf(String id) {
+		return (int) Long.remainderUnsigned(hash(id), numShards);
+	}
+
+	/**
+	 * @param id : the shard key of a document
+	 * @return whether the document belongs to this shard.
+	 */
+	public boolean contains(String id) {
+		return numShards == 1 || shardOf(id) == shard;
+	}
+
+	private static long hash(String id) {
+		long hash = 0xcbf29ce484222325L;
+		for (byte b : id.getBytes(StandardCharsets.UTF_8)) {
+			hash ^= b & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return shard + "/" + numShards;
+	}
+
+}
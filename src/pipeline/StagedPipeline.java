@@ -0,0 +1,322 @@
+/**
+ *
+ */
+package src.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import src.preprocessing.AnnotatedDocument;
+import src.utils.genutils.RunMetrics;
+
+/**
+ * Runs a corpus through four stages, each with its own threads:
+ *
+ * reader (the calling thread) -> preprocess workers -> extractor workers ->
+ * sink (the FeatureSink's writer thread)
+ *
+ * Stages are connected by bounded queues, so a slow stage makes the ones
+ * before it wait instead of piling up documents in memory. The reader also
+ * waits for the sink's reorder window (FeatureSink.awaitWindow()), so that one
+ * slow document cannot make the workers block on the sink. Preprocessing
+ * (tagging, parsing) is where the time goes, so it usually gets most of the
+ * threads.
+ *
+ * A document that fails in any stage is skipped in the sink, with its stack
+ * trace printed. A sink that fails stops the run: the reader stops reading,
+ * the workers drop the documents still queued, and run() throws the failure.
+ *
+ * With RunMetrics set, the per document latency of both worker stages and the
+ * number of finished documents are recorded there, and the periodic report
+ * includes the metrics summary.
+ *
+ * @author svajjala
+ */
+public class StagedPipeline {
+
+	/**
+	 * The preprocess stage: computes the annotation layers of a document.
+	 */
+	public interface Annotator {
+		AnnotatedDocument annotate(InputDocument doc) throws Exception;
+	}
+
+	/**
+	 * The extractor stage: computes the features of an annotated document.
+	 */
+	public interface Extractor {
+		TreeMap<String, Double> extract(InputDocument doc, AnnotatedDocument annotated) throws Exception;
+	}
+
+	private static final InputDocument END = new InputDocument(-1, null, null);
+	private static final Annotated END_ANNOTATED = new Annotated(END, null);
+
+	private final Annotator annotator;
+	private final Extractor extractor;
+	private final int preprocessThreads;
+	private final int extractThreads;
+	private final BlockingQueue<InputDocument> preprocessQueue;
+	private final BlockingQueue<Annotated> extractQueue;
+	private long reportIntervalMillis = 60000;
+	private RunMetrics metrics;
+
+	private final AtomicLong numRead = new AtomicLong();
+	private final AtomicLong numPreprocessed = new AtomicLong();
+	private final AtomicLong numExtracted = new AtomicLong();
+	private final AtomicLong numFailed = new AtomicLong();
+	private final AtomicLong readNanos = new AtomicLong();
+	private final AtomicLong preprocessNanos = new AtomicLong();
+	private final AtomicLong extractNanos = new AtomicLong();
+	private final AtomicLong preprocessQueueDepthTotal = new AtomicLong();
+	private final AtomicLong extractQueueDepthTotal = new AtomicLong();
+	private final AtomicLong numQueueSamples = new AtomicLong();
+	private final AtomicReference<Exception> sinkFailure = new AtomicReference<Exception>();
+
+	/**
+	 * @param annotator         : the preprocess stage
+	 * @param preprocessThreads : number of preprocess workers
+	 * @param extractor         : the extractor stage
+	 * @param extractThreads    : number of extractor workers
+	 * @param queueCapacity     : capacity of each of the two queues
+	 */
+	public StagedPipeline(Annotator annotator, int preprocessThreads, Extractor extractor, int extractThreads,
+			int queueCapacity) {
+		this.annotator = annotator;
+		this.preprocessThreads = preprocessThreads;
+		this.extractor = extractor;
+		this.extractThreads = extractThreads;
+		this.preprocessQueue = new ArrayBlockingQueue<InputDocument>(queueCapacity);
+		this.extractQueue = new ArrayBlockingQueue<Annotated>(queueCapacity);
+	}
+
+	/**
+	 * @param seconds : how often to print the stage report while running; 0 turns
+	 *                it off.
+	 */
+	public void setReportInterval(long seconds) {
+		this.reportIntervalMillis = seconds * 1000;
+	}
+
+	/**
+	 * @param metrics : where to record stage latencies and finished documents, or
+	 *                null
+	 */
+	public void setMetrics(RunMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Runs every document of the reader through the pipeline, and returns once
+	 * all of them have been handed to the sink. Closes neither the reader nor the
+	 * sink.
+	 *
+	 * @param reader : the input documents
+	 * @param sink   : where the rows go
+	 * @throws Exception if reading failed, or the sink did
+	 */
+	public void run(DocumentReader reader, FeatureSink sink) throws Exception {
+		List<Thread> preprocessWorkers = new ArrayList<Thread>();
+		for (int i = 0; i < preprocessThreads; i++) {
+			preprocessWorkers.add(startThread("preprocess-" + (i + 1), () -> preprocessLoop(sink)));
+		}
+		List<Thread> extractWorkers = new ArrayList<Thread>();
+		for (int i = 0; i < extractThreads; i++) {
+			extractWorkers.add(startThread("extract-" + (i + 1), () -> extractLoop(sink)));
+		}
+		Thread monitor = null;
+		if (reportIntervalMillis > 0) {
+			monitor = new Thread(() -> monitorLoop(sink), "pipeline-monitor");
+			monitor.setDaemon(true);
+			monitor.start();
+		}
+
+		try {
+			long start = System.nanoTime();
+			InputDocument doc;
+			while (sinkFailure.get() == null && (doc = reader.next()) != null) {
+				readNanos.addAndGet(System.nanoTime() - start);
+				numRead.incrementAndGet();
+				sink.awaitWindow(doc.getIndex());
+				preprocessQueue.put(doc);
+				start = System.nanoTime();
+			}
+		} catch (Exception e) {
+			// A failed sink fails awaitWindow() too; throw what the workers saw instead.
+			if (sinkFailure.get() == null) {
+				throw e;
+			}
+		} finally {
+			for (int i = 0; i < preprocessThreads; i++) {
+				preprocessQueue.put(END);
+			}
+			for (Thread worker : preprocessWorkers) {
+				worker.join();
+			}
+			for (int i = 0; i < extractThreads; i++) {
+				extractQueue.put(END_ANNOTATED);
+			}
+			for (Thread worker : extractWorkers) {
+				worker.join();
+			}
+			if (monitor != null) {
+				monitor.interrupt();
+			}
+		}
+		Exception failure = sinkFailure.get();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private Thread startThread(String name, Runnable loop) {
+		Thread thread = new Thread(loop, name);
+		thread.start();
+		return thread;
+	}
+
+	private void preprocessLoop(FeatureSink sink) {
+		try {
+			InputDocument doc;
+			while ((doc = preprocessQueue.take()) != END) {
+				if (sinkFailure.get() != null) {
+					continue;
+				}
+				long start = System.nanoTime();
+				AnnotatedDocument annotated;
+				try {
+					annotated = annotator.annotate(doc);
+				} catch (Throwable e) {
+					// Also errors (e.g. a stack overflow on a deep tree): the sink waits for
+					// every index, so the document must be skipped.
+					System.out.println("Preprocessing failed for: " + doc.getFilepath());
+					e.printStackTrace();
+					numFailed.incrementAndGet();
+					skip(sink, doc);
+					continue;
+				} finally {
+					preprocessNanos.addAndGet(System.nanoTime() - start);
+					if (metrics != null) {
+						metrics.recordSince(RunMetrics.PREPROCESS, start);
+					}
+				}
+				numPreprocessed.incrementAndGet();
+				extractQueue.put(new Annotated(doc, annotated));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void extractLoop(FeatureSink sink) {
+		try {
+			Annotated item;
+			while ((item = extractQueue.take()) != END_ANNOTATED) {
+				if (sinkFailure.get() != null) {
+					continue;
+				}
+				long start = System.nanoTime();
+				TreeMap<String, Double> features;
+				try {
+					features = extractor.extract(item.doc, item.annotated);
+				} catch (Throwable e) {
+					System.out.println("Feature extraction failed for: " + item.doc.getFilepath());
+					e.printStackTrace();
+					numFailed.incrementAndGet();
+					skip(sink, item.doc);
+					continue;
+				} finally {
+					extractNanos.addAndGet(System.nanoTime() - start);
+					if (metrics != null) {
+						metrics.recordSince(RunMetrics.EXTRACT, start);
+					}
+				}
+				numExtracted.incrementAndGet();
+				if (metrics != null) {
+					metrics.addDocument();
+				}
+				try {
+					sink.write(item.doc.getIndex(), item.doc.getFilepath(), features);
+				} catch (InterruptedException e) {
+					throw e;
+				} catch (Exception e) {
+					System.out.println("Writing features failed for: " + item.doc.getFilepath() + ", stopping");
+					e.printStackTrace();
+					sinkFailure.compareAndSet(null, e);
+					// Lets a reader waiting for the reorder window past this document go on
+					// and see the failure (a sink that is broken throws here as well).
+					skip(sink, item.doc);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void skip(FeatureSink sink, InputDocument doc) {
+		try {
+			sink.skip(doc.getIndex());
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void monitorLoop(FeatureSink sink) {
+		try {
+			while (true) {
+				for (long waited = 0; waited < reportIntervalMillis; waited += 1000) {
+					Thread.sleep(1000);
+					numQueueSamples.incrementAndGet();
+					preprocessQueueDepthTotal.addAndGet(preprocessQueue.size());
+					extractQueueDepthTotal.addAndGet(extractQueue.size());
+				}
+				System.out.println("Pipeline: " + getQueueDepths(sink) + "; " + getStats());
+				if (metrics != null) {
+					System.out.println(metrics.getSummary());
+				}
+			}
+		} catch (InterruptedException e) {
+		}
+	}
+
+	private String getQueueDepths(FeatureSink sink) {
+		return "preprocess queue " + preprocessQueue.size() + "/"
+				+ (preprocessQueue.size() + preprocessQueue.remainingCapacity()) + ", extract queue "
+				+ extractQueue.size() + "/" + (extractQueue.size() + extractQueue.remainingCapacity())
+				+ ", rows waiting in sink " + sink.getPendingRows();
+	}
+
+	/**
+	 * @return documents through each stage, the time each stage spent on them,
+	 *         and the average queue depths.
+	 */
+	public String getStats() {
+		long samples = Math.max(numQueueSamples.get(), 1);
+		return "read " + numRead.get() + " (" + readNanos.get() / 1000000 + " ms)"
+				+ ", preprocessed " + numPreprocessed.get() + " on " + preprocessThreads + " threads ("
+				+ preprocessNanos.get() / 1000000 + " ms)"
+				+ ", extracted " + numExtracted.get() + " on " + extractThreads + " threads ("
+				+ extractNanos.get() / 1000000 + " ms)"
+				+ ", failed " + numFailed.get()
+				+ ", average queue depth preprocess " + String.format("%.1f", (double) preprocessQueueDepthTotal.get() / samples)
+				+ " extract " + String.format("%.1f", (double) extractQueueDepthTotal.get() / samples);
+	}
+
+	/**
+	 * A document between the preprocess and extractor stages.
+	 */
+	private static class Annotated {
+		private final InputDocument doc;
+		private final AnnotatedDocument annotated;
+
+		Annotated(InputDocument doc, AnnotatedDocument annotated) {
+			this.doc = doc;
+			this.annotated = annotated;
+		}
+	}
+
+}
@@ -0,0 +1,80 @@
+/**
+ *
+ */
+package src.pipeline;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes sparse SVMLight / SVMrank lines: "target qid:N index:value ...", with
+ * indexes from a FeatureIndexRegistry in increasing order. Features whose value
+ * is 0 are left out, as the format allows.
+ *
+ * @author svajjala
+ */
+public class SvmLightWriter {
+
+	private final BufferedWriter bw;
+	private final FeatureIndexRegistry registry;
+	private final StringBuilder line = new StringBuilder();
+
+	/**
+	 * @param outputfilepath : the file to write
+	 * @param registry       : where feature indexes come from; new features are
+	 *                       registered as they appear
+	 * @throws IOException
+	 */
+	public SvmLightWriter(String outputfilepath, FeatureIndexRegistry registry) throws IOException {
+		this.bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputfilepath), "UTF8"), 1 << 20);
+		this.registry = registry;
+	}
+
+	/**
+	 * Writes one line.
+	 *
+	 * @param target   : the label, e.g. the reading level
+	 * @param qid      : the query id (the group a ranker compares within), or a
+	 *                 negative number to leave it out
+	 * @param features : feature names and values
+	 * @throws IOException
+	 */
+	public void write(String target, long qid, TreeMap<String, Double> features) throws IOException {
+		registry.register(features.keySet());
+		long[] entries = new long[features.size()];
+		double[] values = new double[features.size()];
+		int n = 0;
+		for (Map.Entry<String, Double> feature : features.entrySet()) {
+			double value = feature.getValue();
+			if (value == 0) {
+				continue;
+			}
+			// Index in the high bits, position in the low bits: sorting orders by index.
+			entries[n] = ((long) registry.getIndex(feature.getKey()) << 32) | n;
+			values[n] = value;
+			n++;
+		}
+		Arrays.sort(entries, 0, n);
+
+		line.setLength(0);
+		line.append(target);
+		if (qid >= 0) {
+			line.append(" qid:").append(qid);
+		}
+		for (int i = 0; i < n; i++) {
+			line.append(' ').append(entries[i] >>> 32).append(':').append(values[(int) entries[i]]);
+		}
+		bw.write(line.toString());
+		bw.newLine();
+	}
+
+	public void close() throws IOException {
+		bw.close();
+	}
+
+}
@@ -0,0 +1,173 @@
+/**
+ *
+ */
+package src.preprocessing;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.ling.TaggedWord;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.util.ScoredObject;
+
+/**
+ * A text together with its annotation layers. Layers are computed the first
+ * time they are asked for, so a document that is never asked for trees is
+ * never parsed. Tokenization is shared by all other layers. When the layers a
+ * job needs are known up front (see PreprocessText.annotate()), the 1-best
+ * trees and the k-best parses are read off the same parse.
+ *
+ * Instances are safe to share between threads; each layer is computed once.
+ *
+ * @author svajjala
+ */
+public class AnnotatedDocument {
+
+	private final String content;
+	private final PreprocessText preprocess;
+	private final EnumSet<AnnotationLayer> expectedLayers;
+
+	private List<List<HasWord>> sentences;
+	private ArrayList<String> tokenizedSentences;
+	private List<List<TaggedWord>> taggedSentences;
+	private List<SentenceParse> parses;
+	private boolean parsesHaveKBest;
+	private TokenTable tokenTable;
+
+	AnnotatedDocument(String content, PreprocessText preprocess, EnumSet<AnnotationLayer> expectedLayers) {
+		this.content = content;
+		this.preprocess = preprocess;
+		this.expectedLayers = expectedLayers;
+	}
+
+	/**
+	 * @return the raw text.
+	 */
+	public String getContent() {
+		return content;
+	}
+
+	/**
+	 * Computes all the given layers now, instead of on first access.
+	 *
+	 * @param layers : layers to compute
+	 * @throws Exception
+	 */
+	public void require(EnumSet<AnnotationLayer> layers) throws Exception {
+		if (layers.contains(AnnotationLayer.TOKENS)) {
+			getTokenizedSentences();
+		}
+		if (layers.contains(AnnotationLayer.TAGS)) {
+			getTaggedSentences();
+		}
+		if (layers.contains(AnnotationLayer.KBEST_TREES)) {
+			getKBestParsedSentences();
+		}
+		if (layers.contains(AnnotationLayer.TREES)) {
+			getParsedSentences();
+		}
+		if (layers.contains(AnnotationLayer.TOKENS) || layers.contains(AnnotationLayer.TAGS)) {
+			getTokenTable();
+		}
+	}
+
+	/**
+	 * @return tokenized sentences, as lists of words.
+	 */
+	public synchronized List<List<HasWord>> getSentences() {
+		if (sentences == null) {
+			sentences = preprocess.tokenize(content);
+		}
+		return sentences;
+	}
+
+	/**
+	 * @return tokenized sentences, each as one string of space separated tokens.
+	 * @throws Exception
+	 */
+	public synchronized ArrayList<String> getTokenizedSentences() throws Exception {
+		if (tokenizedSentences == null) {
+			ArrayList<String> result = new ArrayList<String>();
+			for (List<HasWord> sentence : getSentences()) {
+				result.add(PreprocessText.listToString(sentence));
+			}
+			tokenizedSentences = result;
+		}
+		return tokenizedSentences;
+	}
+
+	/**
+	 * @return the tokens as vocabulary ids, with their tags if the document has
+	 *         been tagged.
+	 */
+	public synchronized TokenTable getTokenTable() {
+		if (tokenTable == null || (taggedSentences != null && !tokenTable.hasTags())) {
+			tokenTable = TokenTable.of(taggedSentences != null ? taggedSentences : getSentences());
+		}
+		return tokenTable;
+	}
+
+	/**
+	 * @return the tokens as vocabulary ids, with their tags. Tags the document if
+	 *         needed.
+	 */
+	public synchronized TokenTable getTaggedTokenTable() {
+		getTaggedSentences();
+		return getTokenTable();
+	}
+
+	/**
+	 * @return POS tagged sentences.
+	 */
+	public synchronized List<List<TaggedWord>> getTaggedSentences() {
+		if (taggedSentences == null) {
+			taggedSentences = preprocess.tag(getSentences());
+		}
+		return taggedSentences;
+	}
+
+	/**
+	 * @return the 1-best tree of every sentence. As in the original
+	 *         preProcessFile(), every tree appears twice in a row.
+	 * @throws Exception
+	 */
+	public synchronized List<Tree> getParsedSentences() throws Exception {
+		List<Tree> parsedSentences = new ArrayList<Tree>();
+		for (SentenceParse parse : getParses(expectedLayers.contains(AnnotationLayer.KBEST_TREES))) {
+			parsedSentences.add(parse.getBestParse());
+			parsedSentences.add(parse.getBestParse());
+		}
+		return parsedSentences;
+	}
+
+	/**
+	 * @return the k-best PCFG parses of every sentence.
+	 * @throws Exception
+	 */
+	public synchronized List<List<ScoredObject<Tree>>> getKBestParsedSentences() throws Exception {
+		List<List<ScoredObject<Tree>>> kParsedSentences = new ArrayList<List<ScoredObject<Tree>>>();
+		for (SentenceParse parse : getParses(true)) {
+			kParsedSentences.add(parse.getKBestParses());
+		}
+		return kParsedSentences;
+	}
+
+	/**
+	 * @param withKBest : whether the k-best parses are needed as well.
+	 * @return the parse of every sentence. Parses again only if k-best parses are
+	 *         asked for but were not computed the first time. With tag
+	 *         constrained parsing, this tags the document first.
+	 * @throws Exception
+	 */
+	private List<SentenceParse> getParses(boolean withKBest) throws Exception {
+		if (parses == null || (withKBest && !parsesHaveKBest)) {
+			parses = preprocess.parse(preprocess.isTagConstrainedParsing() ? getTaggedSentences() : getSentences(),
+					withKBest);
+			parsesHaveKBest = withKBest;
+		}
+		return parses;
+	}
+
+}
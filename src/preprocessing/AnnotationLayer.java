@@ -0,0 +1,22 @@
+/**
+ *
+ */
+package src.preprocessing;
+
+/**
+ * The annotation layers PreprocessText can compute for a text. Feature
+ * extractors declare the layers they read, so that the tagger and the parser
+ * only run for jobs that need them.
+ *
+ * @author svajjala
+ */
+public enum AnnotationLayer {
+	/** Sentence split and tokenized text. */
+	TOKENS,
+	/** POS tagged sentences (needs the tagger). */
+	TAGS,
+	/** 1-best constituency trees (needs the parser). */
+	TREES,
+	/** k-best PCFG parses with their scores (needs the parser). */
+	KBEST_TREES
+}
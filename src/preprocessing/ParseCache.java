@@ -0,0 +1,358 @@
+/**
+ *
+ */
+package src.preprocessing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import edu.stanford.nlp.ling.HasTag;
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.ling.TaggedWord;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.util.ScoredObject;
+
+/**
+ * Persistent, content-addressed cache of tagged and parsed sentences, so that
+ * re-running the feature extraction over the same corpus does not tag and
+ * parse it again.
+ *
+ * Every entry is one small gzipped binary file. The file name is the SHA-1 of
+ * the entry kind, the identity of the model that produced it (a hash of the
+ * model file) and the tokenized sentence, including the tags of the words if
+ * the sentence was parsed from tagged input. A new tagger or grammar therefore
+ * never reads stale entries. Parse entries hold the scored 1-best tree and,
+ * when they were computed, the k-best trees and scores. The k-best trees of one
+ * sentence share most of their structure, so they compress well.
+ *
+ * When the cache grows over its size bound, the least recently used entries
+ * are deleted (hits refresh the modification time of an entry). Failed parses
+ * are never stored.
+ *
+ * @author svajjala
+ */
+public class ParseCache {
+
+	private static final int FORMAT_VERSION = 1;
+	private static final String TAG_ENTRY = "tag";
+	private static final String PARSE_ENTRY = "parse";
+
+	private final Path directory;
+	private final long maxBytes;
+	private final AtomicLong currentBytes = new AtomicLong(0);
+
+	private final AtomicLong tagHits = new AtomicLong(0);
+	private final AtomicLong tagMisses = new AtomicLong(0);
+	private final AtomicLong parseHits = new AtomicLong(0);
+	private final AtomicLong parseMisses = new AtomicLong(0);
+	private final AtomicLong evictions = new AtomicLong(0);
+
+	private String taggerIdentity;
+	private String parserIdentity;
+
+	/**
+	 * Opens (or creates) a cache directory.
+	 *
+	 * @param directory : where the entries are stored
+	 * @param maxBytes  : size bound of the cache on disk
+	 * @throws IOException
+	 */
+	public ParseCache(String directory, long maxBytes) throws IOException {
+		this.directory = Paths.get(directory);
+		this.maxBytes = maxBytes;
+		Files.createDirectories(this.directory);
+		try (Stream<Path> files = Files.walk(this.directory)) {
+			currentBytes.set(files.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum());
+		}
+	}
+
+	/**
+	 * @param sentence : tokenized sentence
+	 * @return the cached tags of the sentence, or null.
+	 */
+	public List<TaggedWord> getTagged(List<? extends HasWord> sentence) {
+		Path entry = entryPath(TAG_ENTRY, getTaggerIdentity(), sentence);
+		try (DataInputStream in = openEntry(entry)) {
+			if (in != null) {
+				int n = in.readInt();
+				List<TaggedWord> tagged = new ArrayList<TaggedWord>(n);
+				for (int i = 0; i < n; i++) {
+					String word = readString(in);
+					tagged.add(new TaggedWord(word, readString(in)));
+				}
+				tagHits.incrementAndGet();
+				return tagged;
+			}
+		} catch (IOException ex) {
+			System.out.println("Ignoring unreadable cache entry " + entry + " " + ex.toString());
+		}
+		tagMisses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Stores the tags of a sentence.
+	 *
+	 * @param sentence : tokenized sentence
+	 * @param tagged   : its tags
+	 */
+	public void putTagged(List<? extends HasWord> sentence, List<TaggedWord> tagged) {
+		Path entry = entryPath(TAG_ENTRY, getTaggerIdentity(), sentence);
+		try {
+			writeEntry(entry, out -> {
+				out.writeInt(tagged.size());
+				for (TaggedWord wordtag : tagged) {
+					writeString(out, wordtag.word());
+					writeString(out, wordtag.tag());
+				}
+			});
+		} catch (IOException ex) {
+			System.out.println("Could not write cache entry " + entry + " " + ex.toString());
+		}
+	}
+
+	/**
+	 * @param sentence  : tokenized sentence
+	 * @param withKBest : whether the k-best parses are needed
+	 * @return the cached parse of the sentence, or null.
+	 */
+	public SentenceParse getParse(List<? extends HasWord> sentence, boolean withKBest) {
+		Path entry = entryPath(PARSE_ENTRY, getParserIdentity(), sentence);
+		try (DataInputStream in = openEntry(entry)) {
+			if (in != null) {
+				Tree bestParse = Tree.valueOf(readString(in));
+				bestParse.setScore(in.readDouble());
+				boolean hasKBest = in.readBoolean();
+				if (hasKBest || !withKBest) {
+					List<ScoredObject<Tree>> kBestParses = new ArrayList<ScoredObject<Tree>>();
+					int k = hasKBest ? in.readInt() : 0;
+					for (int i = 0; i < k; i++) {
+						double score = in.readDouble();
+						kBestParses.add(new ScoredObject<Tree>(Tree.valueOf(readString(in)), score));
+					}
+					parseHits.incrementAndGet();
+					return new SentenceParse(bestParse, kBestParses);
+				}
+			}
+		} catch (IOException ex) {
+			System.out.println("Ignoring unreadable cache entry " + entry + " " + ex.toString());
+		}
+		parseMisses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Stores the parse of a sentence. Fallback parses are not stored.
+	 *
+	 * @param sentence  : tokenized sentence
+	 * @param parse     : its parse
+	 * @param withKBest : whether parse holds the k-best parses
+	 */
+	public void putParse(List<? extends HasWord> sentence, SentenceParse parse, boolean withKBest) {
+		if (parse.isFallback()) {
+			return;
+		}
+		Path entry = entryPath(PARSE_ENTRY, getParserIdentity(), sentence);
+		try {
+			writeEntry(entry, out -> {
+				writeString(out, parse.getBestParse().toString());
+				out.writeDouble(parse.getBestParse().score());
+				out.writeBoolean(withKBest);
+				if (withKBest) {
+					out.writeInt(parse.getKBestParses().size());
+					for (ScoredObject<Tree> scoredParse : parse.getKBestParses()) {
+						out.writeDouble(scoredParse.score());
+						writeString(out, scoredParse.object().toString());
+					}
+				}
+			});
+		} catch (IOException ex) {
+			System.out.println("Could not write cache entry " + entry + " " + ex.toString());
+		}
+	}
+
+	/**
+	 * @return hit rates and size of the cache, as a printable string.
+	 */
+	public String getStats() {
+		return "ParseCache: tags " + hitRate(tagHits.get(), tagMisses.get()) + ", parses "
+				+ hitRate(parseHits.get(), parseMisses.get()) + ", " + currentBytes.get() / 1024 + " KB on disk, "
+				+ evictions.get() + " entries evicted";
+	}
+
+	private static String hitRate(long hits, long misses) {
+		long total = hits + misses;
+		double rate = total == 0 ? 0.0 : 100.0 * hits / total;
+		return hits + "/" + total + " hits (" + String.format("%.1f", rate) + "%)";
+	}
+
+	private synchronized String getTaggerIdentity() {
+		if (taggerIdentity == null) {
+			taggerIdentity = modelIdentity(PreprocessText.TAGGER_MODEL_PATH);
+		}
+		return taggerIdentity;
+	}
+
+	private synchronized String getParserIdentity() {
+		if (parserIdentity == null) {
+			parserIdentity = modelIdentity(PreprocessText.PARSER_MODEL_PATH);
+		}
+		return parserIdentity;
+	}
+
+	/**
+	 * @param modelPath : path of a model file
+	 * @return a hash of the model file contents.
+	 */
+	private static String modelIdentity(String modelPath) {
+		try (InputStream in = new BufferedInputStream(new FileInputStream(modelPath))) {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			byte[] buffer = new byte[65536];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				md.update(buffer, 0, read);
+			}
+			return toHex(md.digest());
+		} catch (Exception ex) {
+			// The model cannot be loaded either, so nothing will be cached under this name.
+			return modelPath;
+		}
+	}
+
+	private Path entryPath(String kind, String modelIdentity, List<? extends HasWord> sentence) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			md.update((kind + "\t" + modelIdentity + "\t").getBytes(StandardCharsets.UTF_8));
+			for (HasWord word : sentence) {
+				md.update(word.word().getBytes(StandardCharsets.UTF_8));
+				if (word instanceof HasTag && ((HasTag) word).tag() != null) {
+					md.update((byte) '/');
+					md.update(((HasTag) word).tag().getBytes(StandardCharsets.UTF_8));
+				}
+				md.update((byte) ' ');
+			}
+			String key = toHex(md.digest());
+			return directory.resolve(key.substring(0, 2)).resolve(key.substring(2));
+		} catch (Exception ex) {
+			throw new IllegalStateException("SHA-1 is not available", ex);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return a stream positioned after the header of the entry, or null if the
+	 *         entry does not exist or has another format version.
+	 */
+	private DataInputStream openEntry(Path entry) throws IOException {
+		File file = entry.toFile();
+		if (!file.exists()) {
+			return null;
+		}
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+		if (in.readInt() != FORMAT_VERSION) {
+			in.close();
+			return null;
+		}
+		file.setLastModified(System.currentTimeMillis());
+		return in;
+	}
+
+	private interface EntryWriter {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	/**
+	 * Writes an entry to a temporary file and moves it into place, so that
+	 * readers never see half written entries.
+	 */
+	private void writeEntry(Path entry, EntryWriter writer) throws IOException {
+		Files.createDirectories(entry.getParent());
+		Path temp = Files.createTempFile(entry.getParent(), "entry", ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temp))))) {
+			out.writeInt(FORMAT_VERSION);
+			writer.write(out);
+		}
+		long size = temp.toFile().length();
+		// An entry written again (e.g. with k-best parses added) replaces the old file.
+		long replacedSize = entry.toFile().length();
+		Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		if (currentBytes.addAndGet(size - replacedSize) > maxBytes) {
+			evict();
+		}
+	}
+
+	/**
+	 * Deletes the least recently used entries until the cache is at 90% of its
+	 * size bound.
+	 */
+	private synchronized void evict() throws IOException {
+		if (currentBytes.get() <= maxBytes) {
+			return;
+		}
+		File[] files;
+		try (Stream<Path> paths = Files.walk(directory)) {
+			files = paths.filter(Files::isRegularFile).map(Path::toFile).toArray(File[]::new);
+		}
+		long[] lastModified = new long[files.length];
+		Integer[] order = new Integer[files.length];
+		long total = 0;
+		for (int i = 0; i < files.length; i++) {
+			lastModified[i] = files[i].lastModified();
+			order[i] = i;
+			total += files[i].length();
+		}
+		Arrays.sort(order, Comparator.comparingLong(i -> lastModified[i]));
+		long target = maxBytes / 10 * 9;
+		for (int i = 0; i < order.length && total > target; i++) {
+			File file = files[order[i]];
+			long size = file.length();
+			if (file.delete()) {
+				total -= size;
+				evictions.incrementAndGet();
+			}
+		}
+		currentBytes.set(total);
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
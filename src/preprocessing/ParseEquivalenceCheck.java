@@ -0,0 +1,136 @@
+/**
+ *
+ */
+package src.preprocessing;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.parser.lexparser.LexicalizedParser;
+import edu.stanford.nlp.parser.lexparser.LexicalizedParserQuery;
+import edu.stanford.nlp.process.DocumentPreprocessor;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.util.ScoredObject;
+import src.features.KBestParseBasedFeatures;
+import src.features.ParseTreeBasedFeatures;
+
+/**
+ * Checks that the single-parse stage (PreprocessText.parseSentence()) gives the
+ * same trees, k-best scores and parse based features as the old way of parsing
+ * every sentence three times (lp.apply() twice, plus one more query for the
+ * k-best list). Every line of the input file is treated as one text; the
+ * "****" separator lines of the OSE corpus are skipped.
+ *
+ * @author svajjala
+ */
+public class ParseEquivalenceCheck {
+
+	/**
+	 * @param args : args[0] the input file (defaults to the OSE corpus), args[1]
+	 *             the maximum number of texts to check (defaults to 100).
+	 */
+	public static void main(String[] args) throws Exception {
+		String inputPath = args.length > 0 ? args[0]
+				: "corpus/OSE-SentenceAlignedCorpus-ThreeLevel-2013toMid2015-FINAL.txt";
+		int maxTexts = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+		LexicalizedParser lp = PreprocessText.getParser();
+		LexicalizedParserQuery lpq = lp.lexicalizedParserQuery();
+		ParseTreeBasedFeatures parse = new ParseTreeBasedFeatures();
+		KBestParseBasedFeatures kBestParse = new KBestParseBasedFeatures();
+
+		int numTexts = 0;
+		int numSentences = 0;
+		int numMismatches = 0;
+		long oldTime = 0;
+		long newTime = 0;
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(inputPath), "UTF8"));
+		String dummy;
+		while ((dummy = br.readLine()) != null && numTexts < maxTexts) {
+			if (dummy.contains("****") || dummy.trim().isEmpty()) {
+				continue;
+			}
+			numTexts++;
+			List<Tree> oldTrees = new ArrayList<Tree>();
+			List<List<ScoredObject<Tree>>> oldKBest = new ArrayList<List<ScoredObject<Tree>>>();
+			List<Tree> newTrees = new ArrayList<Tree>();
+			List<List<ScoredObject<Tree>>> newKBest = new ArrayList<List<ScoredObject<Tree>>>();
+
+			for (List<HasWord> sentence : new DocumentPreprocessor(new StringReader(dummy))) {
+				numSentences++;
+				long start = System.nanoTime();
+				oldTrees.add(lp.apply(sentence));
+				LexicalizedParserQuery oldQuery = lp.lexicalizedParserQuery();
+				oldQuery.parse(sentence);
+				oldKBest.add(oldQuery.getKBestPCFGParses(PreprocessText.NUM_KBEST_PARSES));
+				oldTrees.add(lp.apply(sentence));
+				oldTime += System.nanoTime() - start;
+
+				start = System.nanoTime();
+				SentenceParse sentenceParse = PreprocessText.parseSentence(lpq, sentence);
+				newTrees.add(sentenceParse.getBestParse());
+				newKBest.add(sentenceParse.getKBestParses());
+				newTrees.add(sentenceParse.getBestParse());
+				newTime += System.nanoTime() - start;
+			}
+
+			List<String> differences = new ArrayList<String>();
+			for (int i = 0; i < oldTrees.size(); i++) {
+				if (!oldTrees.get(i).equals(newTrees.get(i)) || oldTrees.get(i).score() != newTrees.get(i).score()) {
+					differences.add("1-best tree of sentence " + (i / 2));
+				}
+			}
+			for (int i = 0; i < oldKBest.size(); i++) {
+				if (!sameScores(oldKBest.get(i), newKBest.get(i))) {
+					differences.add("k-best list of sentence " + i);
+				}
+			}
+			differences.addAll(compare(parse.getSyntacticComplexityFeatures(oldTrees),
+					parse.getSyntacticComplexityFeatures(newTrees)));
+			differences.addAll(compare(kBestParse.getSyntacticComplexityFeatures(oldKBest),
+					kBestParse.getSyntacticComplexityFeatures(newKBest)));
+			if (!differences.isEmpty()) {
+				numMismatches++;
+				System.out.println("Mismatch for text " + numTexts + ": " + differences);
+			}
+		}
+		br.close();
+
+		System.out.println("Checked " + numTexts + " texts, " + numSentences + " sentences, " + numMismatches
+				+ " texts with differences.");
+		System.out.println("Time spent parsing: old " + oldTime / 1000000 + " ms, new " + newTime / 1000000 + " ms");
+		if (numMismatches > 0) {
+			System.exit(1);
+		}
+	}
+
+	private static boolean sameScores(List<ScoredObject<Tree>> oldParses, List<ScoredObject<Tree>> newParses) {
+		if (oldParses.size() != newParses.size()) {
+			return false;
+		}
+		for (int i = 0; i < oldParses.size(); i++) {
+			if (oldParses.get(i).score() != newParses.get(i).score()
+					|| !oldParses.get(i).object().equals(newParses.get(i).object())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static List<String> compare(TreeMap<String, Double> oldFeatures, TreeMap<String, Double> newFeatures) {
+		List<String> differences = new ArrayList<String>();
+		for (String s : oldFeatures.keySet()) {
+			if (!oldFeatures.get(s).equals(newFeatures.get(s))) {
+				differences.add(s + " " + oldFeatures.get(s) + " vs " + newFeatures.get(s));
+			}
+		}
+		return differences;
+	}
+
+}
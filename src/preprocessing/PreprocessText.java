@@ -3,12 +3,21 @@
  */
 package src.preprocessing;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.InputStreamReader;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import edu.stanford.nlp.ling.HasWord;
 import edu.stanford.nlp.ling.TaggedWord;
@@ -17,20 +26,58 @@ import edu.stanford.nlp.parser.lexparser.LexicalizedParserQuery;
 import edu.stanford.nlp.process.DocumentPreprocessor;
 import edu.stanford.nlp.tagger.maxent.MaxentTagger;
 import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.util.RuntimeInterruptedException;
 import edu.stanford.nlp.util.ScoredObject;
+import src.utils.genutils.RunMetrics;
 
 /**
  * @author svajjala
- *
+ * 
+ *         Reentrant preprocessing engine. The tagger and the parser grammar are
+ *         loaded once per JVM and shared by all instances. Parsing state lives
+ *         in LexicalizedParserQuery objects, which are not thread-safe, so
+ *         each instance keeps a bounded pool of them and every document
+ *         borrows one while it is being parsed. Tokenizers are created per
+ *         call. One instance can therefore be shared by any number of worker
+ *         threads.
+ * 
+ *         Models are loaded on first use: a job that only asks for tokens (see
+ *         annotate()) never loads the tagger or the parser.
+ * 
+ *         The PCFG is cubic in sentence length, so one run-on sentence can hold
+ *         a worker for minutes. setMaxSentenceLength() and setParseTimeBudget()
+ *         bound the work per sentence; sentences over a limit are not parsed and
+ *         get a flat UNPARSED tree instead (see SentenceParse).
  */
 public class PreprocessText {
 
-	/**
-	 * @param args
-	 */
-	private static MaxentTagger tagger;// = new MaxentTagger("models/english-left3words-distsim.tagger");
-	private static LexicalizedParser lp;// = LexicalizedParser.loadModel("models/englishPCFG.ser.gz");
-	private static DocumentPreprocessor tokenizer;
+	public static final String TAGGER_MODEL_PATH = "models/english-left3words-distsim.tagger";
+	public static final String PARSER_MODEL_PATH = "models/englishPCFG.ser.gz";
+	public static final int NUM_KBEST_PARSES = 10;
+
+	private static MaxentTagger tagger;
+	private static LexicalizedParser lp;
+
+	private final int maxParserQueries;
+	private final AtomicInteger createdParserQueries = new AtomicInteger(0);
+	private final BlockingQueue<LexicalizedParserQuery> parserQueries;
+	private ParseCache parseCache;
+	private SentenceMemo sentenceMemo;
+	private RunMetrics metrics;
+
+	private boolean tagConstrainedParsing = false;
+	private int maxSentenceLength = Integer.MAX_VALUE;
+	private long parseTimeBudgetMillis = 0;
+	private final AtomicLongArray parseOutcomes = new AtomicLongArray(SentenceParse.Status.values().length);
+
+	private static final ScheduledThreadPoolExecutor parseWatchdog = new ScheduledThreadPoolExecutor(1, r -> {
+		Thread t = new Thread(r, "parse-watchdog");
+		t.setDaemon(true);
+		return t;
+	});
+	static {
+		parseWatchdog.setRemoveOnCancelPolicy(true);
+	}
 
 	public static void main(String[] args) throws Exception {
 
@@ -54,13 +101,380 @@ public class PreprocessText {
 		// System.out.println(taggedSentences.get(0).toString());
 	}
 
+	/**
+	 * Creates an engine with one parser query per available core.
+	 */
 	public PreprocessText() {
-		tagger = new MaxentTagger("models/english-left3words-distsim.tagger");
-		lp = LexicalizedParser.loadModel("models/englishPCFG.ser.gz");
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates an engine that parses at most maxParserQueries sentences at a time.
+	 * Further callers wait until a query is returned to the pool.
+	 * 
+	 * @param maxParserQueries : size of the parser query pool
+	 */
+	public PreprocessText(int maxParserQueries) {
+		if (maxParserQueries < 1) {
+			throw new IllegalArgumentException("maxParserQueries must be at least 1: " + maxParserQueries);
+		}
+		this.maxParserQueries = maxParserQueries;
+		this.parserQueries = new LinkedBlockingQueue<LexicalizedParserQuery>(maxParserQueries);
+	}
+
+	/**
+	 * @return the shared tagger, loaded on first use.
+	 */
+	static synchronized MaxentTagger getTagger() {
+		if (tagger == null) {
+			tagger = new MaxentTagger(TAGGER_MODEL_PATH);
+		}
+		return tagger;
+	}
+
+	/**
+	 * @return the shared parser grammar, loaded on first use.
+	 */
+	static synchronized LexicalizedParser getParser() {
+		if (lp == null) {
+			lp = LexicalizedParser.loadModel(PARSER_MODEL_PATH);
+		}
+		return lp;
+	}
+
+	/**
+	 * Takes a parser query from the pool. Creates a new one while the pool is
+	 * below its bound, otherwise blocks until another thread returns one.
+	 * 
+	 * @return a query owned by the caller until releaseParserQuery() is called.
+	 * @throws InterruptedException
+	 */
+	private LexicalizedParserQuery borrowParserQuery() throws InterruptedException {
+		LexicalizedParserQuery lpq = parserQueries.poll();
+		if (lpq != null) {
+			return lpq;
+		}
+		if (createdParserQueries.incrementAndGet() <= maxParserQueries) {
+			return getParser().lexicalizedParserQuery();
+		}
+		createdParserQueries.decrementAndGet();
+		return parserQueries.take();
+	}
+
+	private void releaseParserQuery(LexicalizedParserQuery lpq) {
+		parserQueries.offer(lpq);
 	}
 
 	/**
-	 * Reads a file and returns its textual content.
+	 * Parses a sentence once and reads both the 1-best tree and the k-best PCFG
+	 * parses off the same chart. The 1-best tree is scored exactly as
+	 * LexicalizedParser.apply() does, so its output is interchangeable with
+	 * apply(). On parse failure it is replaced with a flat UNPARSED tree.
+	 * 
+	 * @param lpq      : a parser query owned by the calling thread
+	 * @param sentence : tokenized sentence
+	 * @return the 1-best tree and the k-best parses
+	 */
+	static SentenceParse parseSentence(LexicalizedParserQuery lpq, List<? extends HasWord> sentence) {
+		return parseSentence(lpq, sentence, true);
+	}
+
+	/**
+	 * Same as parseSentence(lpq, sentence), but skips reading the k-best list off
+	 * the chart unless withKBest is set.
+	 */
+	static SentenceParse parseSentence(LexicalizedParserQuery lpq, List<? extends HasWord> sentence,
+			boolean withKBest) {
+		return parseSentence(lpq, sentence, withKBest, null);
+	}
+
+	/**
+	 * Same as parseSentence(lpq, sentence, withKBest), and records the time taken
+	 * by the 1-best parse and by the k-best list in metrics, if not null.
+	 */
+	static SentenceParse parseSentence(LexicalizedParserQuery lpq, List<? extends HasWord> sentence,
+			boolean withKBest, RunMetrics metrics) {
+		try {
+			long start = System.nanoTime();
+			if (lpq.parse(sentence)) {
+				Tree bestParse = lpq.getBestParse();
+				bestParse.setScore(lpq.getPCFGScore() % -10000.0);
+				if (metrics != null) {
+					metrics.recordSince(RunMetrics.PARSE, start);
+					start = System.nanoTime();
+				}
+				List<ScoredObject<Tree>> kBestParses = withKBest ? lpq.getKBestPCFGParses(NUM_KBEST_PARSES)
+						: Collections.<ScoredObject<Tree>>emptyList();
+				if (metrics != null && withKBest) {
+					metrics.recordSince(RunMetrics.KBEST, start);
+				}
+				return new SentenceParse(bestParse, kBestParses);
+			}
+		} catch (RuntimeInterruptedException ex) {
+			throw ex;
+		} catch (Exception ex) {
+			System.out.println("Error while parsing, using a flat tree: " + ex.toString());
+		}
+		return SentenceParse.unparsed(sentence, SentenceParse.Status.FAILED);
+	}
+
+	/**
+	 * When on, the parser is given the tagger's output, and the tags restrict the
+	 * categories it considers for each word instead of it inferring them again in
+	 * the chart. Parsing is faster, but trees can differ from untagged parsing;
+	 * see TagConstrainedParsingBenchmark. Off by default.
+	 * 
+	 * @param tagConstrainedParsing : whether to parse tagged sentences
+	 */
+	public void setTagConstrainedParsing(boolean tagConstrainedParsing) {
+		this.tagConstrainedParsing = tagConstrainedParsing;
+	}
+
+	/**
+	 * @return whether the parser is given tagged sentences.
+	 */
+	public boolean isTagConstrainedParsing() {
+		return tagConstrainedParsing;
+	}
+
+	/**
+	 * Sentences with more tokens than this are not parsed.
+	 * 
+	 * @param maxSentenceLength : maximum number of tokens
+	 */
+	public void setMaxSentenceLength(int maxSentenceLength) {
+		this.maxSentenceLength = maxSentenceLength;
+	}
+
+	/**
+	 * Parsing a sentence is abandoned after this much wall-clock time.
+	 * 
+	 * @param parseTimeBudgetMillis : budget per sentence in milliseconds, 0 for
+	 *                              no limit
+	 */
+	public void setParseTimeBudget(long parseTimeBudgetMillis) {
+		this.parseTimeBudgetMillis = parseTimeBudgetMillis;
+	}
+
+	/**
+	 * @return how many sentences this engine parsed, and how many it did not
+	 *         parse for each reason, as a printable string.
+	 */
+	public String getParseStats() {
+		String stats = "Parser:";
+		for (SentenceParse.Status status : SentenceParse.Status.values()) {
+			stats += " " + status + "=" + parseOutcomes.get(status.ordinal());
+		}
+		return stats;
+	}
+
+	/**
+	 * Interrupts a worker thread when its parse goes over the time budget. The
+	 * parser checks the interrupt flag while filling the chart.
+	 */
+	private static class ParseDeadline implements Runnable {
+		private final Thread worker;
+		private boolean finished = false;
+		private boolean fired = false;
+
+		ParseDeadline(Thread worker) {
+			this.worker = worker;
+		}
+
+		@Override
+		public synchronized void run() {
+			if (!finished) {
+				fired = true;
+				worker.interrupt();
+			}
+		}
+
+		/**
+		 * Called by the worker when it is done with the sentence. Clears an
+		 * interrupt this deadline may have raised.
+		 * 
+		 * @return true if the deadline fired.
+		 */
+		synchronized boolean finish() {
+			if (!finished) {
+				finished = true;
+				if (fired) {
+					Thread.interrupted();
+				}
+			}
+			return fired;
+		}
+	}
+
+	/**
+	 * Parses a sentence within the length and time limits of this engine.
+	 */
+	private SentenceParse parseSentenceWithinLimits(LexicalizedParserQuery lpq, List<? extends HasWord> sentence,
+			boolean withKBest) {
+		if (sentence.size() > maxSentenceLength) {
+			return SentenceParse.unparsed(sentence, SentenceParse.Status.TOO_LONG);
+		}
+		if (parseTimeBudgetMillis <= 0) {
+			return parseSentence(lpq, sentence, withKBest, metrics);
+		}
+		ParseDeadline deadline = new ParseDeadline(Thread.currentThread());
+		ScheduledFuture<?> timer = parseWatchdog.schedule(deadline, parseTimeBudgetMillis, TimeUnit.MILLISECONDS);
+		try {
+			return parseSentence(lpq, sentence, withKBest, metrics);
+		} catch (RuntimeInterruptedException ex) {
+			if (deadline.finish()) {
+				return SentenceParse.unparsed(sentence, SentenceParse.Status.TIMED_OUT);
+			}
+			throw ex;
+		} finally {
+			timer.cancel(false);
+			deadline.finish();
+		}
+	}
+
+	/**
+	 * Prepares a text for feature extraction. Nothing is computed yet: each layer
+	 * is computed when it is first read from the returned document.
+	 * 
+	 * @param content : textual content, as string
+	 * @param layers  : the layers the caller is going to read. Used to compute
+	 *                the 1-best and k-best trees in one parse when both are
+	 *                needed.
+	 * @return a lazily annotated document
+	 */
+	public AnnotatedDocument annotate(String content, EnumSet<AnnotationLayer> layers) {
+		return new AnnotatedDocument(content, this, EnumSet.copyOf(layers));
+	}
+
+	/**
+	 * Sentence splitting and tokenizing.
+	 * 
+	 * @param content : textual content, as string
+	 * @return list of tokenized sentences
+	 */
+	List<List<HasWord>> tokenize(String content) {
+		long start = System.nanoTime();
+		List<List<HasWord>> sentences = new ArrayList<List<HasWord>>();
+		for (List<HasWord> sentence : new DocumentPreprocessor(new StringReader(content))) {
+			sentences.add(sentence);
+		}
+		if (metrics != null) {
+			metrics.recordSince(RunMetrics.TOKENIZE, start);
+			metrics.addSentences(sentences.size());
+		}
+		return sentences;
+	}
+
+	/**
+	 * Makes this engine look up tags and parses in the given cache before running
+	 * the tagger or the parser, and store what it computes there.
+	 * 
+	 * @param parseCache : an open cache, or null to switch caching off
+	 */
+	public void setParseCache(ParseCache parseCache) {
+		this.parseCache = parseCache;
+	}
+
+	/**
+	 * Makes this engine look up tags and parses of sentences it has already seen
+	 * in this run before trying the ParseCache, the tagger or the parser.
+	 * 
+	 * @param sentenceMemo : a memo, or null to switch it off
+	 */
+	public void setSentenceMemo(SentenceMemo sentenceMemo) {
+		this.sentenceMemo = sentenceMemo;
+	}
+
+	/**
+	 * Makes this engine record how long tokenizing, tagging and parsing take.
+	 * 
+	 * @param metrics : the metrics of the run, or null to switch recording off
+	 */
+	public void setMetrics(RunMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * POS tags tokenized sentences.
+	 * 
+	 * @param sentences : tokenized sentences
+	 * @return tagged sentences
+	 */
+	List<List<TaggedWord>> tag(List<List<HasWord>> sentences) {
+		long start = System.nanoTime();
+		List<List<TaggedWord>> taggedSentences = new ArrayList<List<TaggedWord>>();
+		for (List<HasWord> sentence : sentences) {
+			List<TaggedWord> tagged = sentenceMemo == null ? null : sentenceMemo.getTagged(sentence);
+			if (tagged != null) {
+				taggedSentences.add(tagged);
+				continue;
+			}
+			tagged = parseCache == null ? null : parseCache.getTagged(sentence);
+			if (tagged == null) {
+				tagged = getTagger().tagSentence(sentence);
+				if (parseCache != null) {
+					parseCache.putTagged(sentence, tagged);
+				}
+			}
+			if (sentenceMemo != null) {
+				sentenceMemo.putTagged(sentence, tagged);
+			}
+			taggedSentences.add(tagged);
+		}
+		if (metrics != null) {
+			metrics.recordSince(RunMetrics.TAG, start);
+		}
+		return taggedSentences;
+	}
+
+	/**
+	 * Parses tokenized sentences on a pooled parser query. The query is only
+	 * borrowed once a sentence is not found in the memo or the cache. If the words carry POS
+	 * tags (TaggedWord), the parser only considers those tags.
+	 * 
+	 * @param sentences : tokenized or tagged sentences
+	 * @param withKBest : whether to also keep the k-best parses
+	 * @return one parse per sentence
+	 * @throws InterruptedException
+	 */
+	List<SentenceParse> parse(List<? extends List<? extends HasWord>> sentences, boolean withKBest)
+			throws InterruptedException {
+		List<SentenceParse> parses = new ArrayList<SentenceParse>();
+		LexicalizedParserQuery lpq = null;
+		try {
+			for (List<? extends HasWord> sentence : sentences) {
+				SentenceParse parse = sentenceMemo == null ? null : sentenceMemo.getParse(sentence, withKBest);
+				if (parse != null) {
+					parses.add(parse);
+					continue;
+				}
+				parse = parseCache == null ? null : parseCache.getParse(sentence, withKBest);
+				if (parse == null) {
+					if (lpq == null) {
+						lpq = borrowParserQuery();
+					}
+					parse = parseSentenceWithinLimits(lpq, sentence, withKBest);
+					parseOutcomes.incrementAndGet(parse.getStatus().ordinal());
+					if (parseCache != null) {
+						parseCache.putParse(sentence, parse, withKBest);
+					}
+				}
+				if (sentenceMemo != null) {
+					sentenceMemo.putParse(sentence, parse, withKBest);
+				}
+				parses.add(parse);
+			}
+		} finally {
+			if (lpq != null) {
+				releaseParserQuery(lpq);
+			}
+		}
+		return parses;
+	}
+
+	/**
+	 * Reads a file and returns its textual content, with every line followed by
+	 * a space instead of its line terminator.
 	 * 
 	 * @param filePath
 	 * @return
@@ -69,50 +483,60 @@ public class PreprocessText {
 	public String getFileContent(String filePath) throws Exception {
 		String content = "";
 		try {
-			BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(filePath), "UTF8"));
-			String dummy;
-			while ((dummy = br.readLine()) != null) {
-				content += dummy + " ";
-			}
-			br.close();
+			content = joinLines(new String(Files.readAllBytes(Paths.get(filePath)), StandardCharsets.UTF_8));
 		} catch (Exception ex) {
 			System.out.println("Error while reading the file: " + filePath + " " + ex.toString());
 		}
 		return content;
 	}
 
+	/**
+	 * Replaces each line terminator (\n, \r or \r\n) with a space, and adds a
+	 * space after a last line that has none: the same text as appending
+	 * BufferedReader.readLine() + " " for every line.
+	 * 
+	 * @param text : text as read from a file
+	 * @return the text on one line
+	 */
+	public static String joinLines(CharSequence text) {
+		int length = text.length();
+		StringBuilder content = new StringBuilder(length + 1);
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			if (c == '\r') {
+				content.append(' ');
+				if (i + 1 < length && text.charAt(i + 1) == '\n') {
+					i++;
+				}
+			} else if (c == '\n') {
+				content.append(' ');
+			} else {
+				content.append(c);
+			}
+		}
+		if (length > 0 && text.charAt(length - 1) != '\n' && text.charAt(length - 1) != '\r') {
+			content.append(' ');
+		}
+		return content.toString();
+	}
+
 	/**
 	 * Performs sentence splitting, tokenizing, tagging and parsing.
 	 * 
 	 * @param content : textual content, as string
-	 * @return A list object with two objects: Tagged sentences and Parsed
-	 *         sentences.
+	 * @return A list object with four objects: Tagged sentences, Parsed
+	 *         sentences, tokenized sentences and k-best parsed sentences.
 	 * @throws Exception
 	 */
 	public List<?> preProcessFile(String content) throws Exception {
 		List<Object> finalList = new ArrayList<Object>();
 
 		try {
-			tokenizer = new DocumentPreprocessor(new StringReader(content));
-
-			List<List<TaggedWord>> taggedSentences = new ArrayList<List<TaggedWord>>();
-			List<Tree> parsedSentences = new ArrayList<Tree>();
-			List<List<ScoredObject<Tree>>> kParsedSentences = new ArrayList<List<ScoredObject<Tree>>>();
-			List<String> tokenizedSentences = new ArrayList<String>();
-
-			for (List<HasWord> sentence : tokenizer) {
-				taggedSentences.add(tagger.tagSentence(sentence));
-				parsedSentences.add(lp.apply(sentence));
-				LexicalizedParserQuery lpq = lp.lexicalizedParserQuery();
-				lpq.parse(sentence);
-				kParsedSentences.add(lpq.getKBestPCFGParses(10));
-				parsedSentences.add(lp.apply(sentence));
-				tokenizedSentences.add(listToString(sentence));
-			}
-			finalList.add(taggedSentences);
-			finalList.add(parsedSentences);
-			finalList.add(tokenizedSentences);
-			finalList.add(kParsedSentences);
+			AnnotatedDocument document = annotate(content, EnumSet.allOf(AnnotationLayer.class));
+			finalList.add(document.getTaggedSentences());
+			finalList.add(document.getParsedSentences());
+			finalList.add(document.getTokenizedSentences());
+			finalList.add(document.getKBestParsedSentences());
 		} catch (Exception ex) {
 			System.out.println("Error in preProcessFile() " + ex.toString());
 		}
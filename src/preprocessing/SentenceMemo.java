@@ -0,0 +1,110 @@
+/**
+ *
+ */
+package src.preprocessing;
+
+import java.util.List;
+
+import edu.stanford.nlp.ling.HasTag;
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.ling.TaggedWord;
+import src.utils.genutils.BoundedMemo;
+
+/**
+ * In-memory memo of tagged and parsed sentences for the length of a run, so
+ * that a sentence that occurs in several documents (e.g. in the levels of an
+ * OSE3 triplet or of a Newsela article) is tagged and parsed once. It is looked
+ * up before the ParseCache, and holds the same objects the first document got;
+ * nothing downstream changes them.
+ *
+ * The key is the tokenized sentence: its words joined by single spaces, and
+ * for tagged input each word followed by "/" and its tag. The tagger and the
+ * parser only look at the sentence itself, so a sentence with the same tokens
+ * gets the same tags and trees, and document features stay exactly the same.
+ * Fallback parses (too long, timed out, failed) are not kept.
+ *
+ * @author svajjala
+ */
+public class SentenceMemo {
+
+	private final BoundedMemo<String, List<TaggedWord>> tags;
+	private final BoundedMemo<String, MemoParse> parses;
+
+	/**
+	 * @param maxSentences : how many tagged and how many parsed sentences are
+	 *                     kept at most
+	 */
+	public SentenceMemo(int maxSentences) {
+		tags = new BoundedMemo<String, List<TaggedWord>>(maxSentences);
+		parses = new BoundedMemo<String, MemoParse>(maxSentences);
+	}
+
+	/**
+	 * @param sentence : tokenized (and maybe tagged) sentence
+	 * @return the normalized text of the sentence, used as key.
+	 */
+	static String key(List<? extends HasWord> sentence) {
+		StringBuilder key = new StringBuilder();
+		for (HasWord word : sentence) {
+			if (key.length() > 0) {
+				key.append(' ');
+			}
+			key.append(word.word());
+			if (word instanceof HasTag && ((HasTag) word).tag() != null) {
+				key.append('/').append(((HasTag) word).tag());
+			}
+		}
+		return key.toString();
+	}
+
+	/**
+	 * @param sentence : tokenized sentence
+	 * @return the tags of the sentence, or null if they are not known yet.
+	 */
+	public List<TaggedWord> getTagged(List<? extends HasWord> sentence) {
+		return tags.get(key(sentence));
+	}
+
+	public void putTagged(List<? extends HasWord> sentence, List<TaggedWord> tagged) {
+		tags.put(key(sentence), tagged);
+	}
+
+	/**
+	 * @param sentence  : tokenized sentence
+	 * @param withKBest : whether the k-best parses are needed
+	 * @return the parse of the sentence, or null.
+	 */
+	public SentenceParse getParse(List<? extends HasWord> sentence, boolean withKBest) {
+		MemoParse memo = parses.get(key(sentence));
+		return memo == null || (withKBest && !memo.hasKBest) ? null : memo.parse;
+	}
+
+	/**
+	 * Keeps the parse of a sentence, unless it is a fallback parse.
+	 *
+	 * @param withKBest : whether parse holds the k-best parses
+	 */
+	public void putParse(List<? extends HasWord> sentence, SentenceParse parse, boolean withKBest) {
+		if (!parse.isFallback()) {
+			parses.put(key(sentence), new MemoParse(parse, withKBest));
+		}
+	}
+
+	/**
+	 * @return hit ratios and sizes, as a printable string.
+	 */
+	public String getStats() {
+		return "SentenceMemo: tags " + tags + ", parses " + parses;
+	}
+
+	private static class MemoParse {
+		private final SentenceParse parse;
+		private final boolean hasKBest;
+
+		MemoParse(SentenceParse parse, boolean hasKBest) {
+			this.parse = parse;
+			this.hasKBest = hasKBest;
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+/**
+ *
+ */
+package src.preprocessing;
+
+import java.util.Collections;
+import java.util.List;
+
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.parser.common.ParserUtils;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.util.ScoredObject;
+
+/**
+ * Result of parsing one sentence: the 1-best tree and the k-best PCFG parses
+ * with their scores. Both come out of the same LexicalizedParserQuery pass.
+ *
+ * Sentences the parser did not parse (too long, over the time budget, or a
+ * parser error) get a flat tree whose root is labelled UNPARSED and an empty
+ * k-best list. Feature extractors use isUnparsed() to leave them out.
+ *
+ * @author svajjala
+ */
+public class SentenceParse {
+
+	/** Root label of the flat trees given to sentences that were not parsed. */
+	public static final String UNPARSED_LABEL = "UNPARSED";
+
+	/** How the parse of a sentence ended. */
+	public enum Status {
+		PARSED, FAILED, TOO_LONG, TIMED_OUT
+	}
+
+	private final Tree bestParse;
+	private final List<ScoredObject<Tree>> kBestParses;
+	private final Status status;
+
+	public SentenceParse(Tree bestParse, List<ScoredObject<Tree>> kBestParses) {
+		this(bestParse, kBestParses, Status.PARSED);
+	}
+
+	/**
+	 * @param bestParse   : 1-best tree
+	 * @param kBestParses : k-best parses, best first
+	 * @param status      : how the parse ended
+	 */
+	public SentenceParse(Tree bestParse, List<ScoredObject<Tree>> kBestParses, Status status) {
+		this.bestParse = bestParse;
+		this.kBestParses = kBestParses;
+		this.status = status;
+	}
+
+	/**
+	 * Makes the result for a sentence that was not parsed.
+	 *
+	 * @param sentence : tokenized sentence
+	 * @param status   : why it was not parsed
+	 * @return a flat UNPARSED tree and no k-best parses
+	 */
+	public static SentenceParse unparsed(List<? extends HasWord> sentence, Status status) {
+		Tree flatTree = ParserUtils.xTree(sentence);
+		flatTree.label().setValue(UNPARSED_LABEL);
+		return new SentenceParse(flatTree, Collections.<ScoredObject<Tree>>emptyList(), status);
+	}
+
+	/**
+	 * @param tree : a 1-best tree
+	 * @return true if the tree is the flat stand-in of a sentence that was not
+	 *         parsed.
+	 */
+	public static boolean isUnparsed(Tree tree) {
+		return UNPARSED_LABEL.equals(tree.value());
+	}
+
+	/**
+	 * @return the 1-best tree, scored like LexicalizedParser.apply() does.
+	 */
+	public Tree getBestParse() {
+		return bestParse;
+	}
+
+	/**
+	 * @return the k-best PCFG parses, best first. Empty if the sentence was not
+	 *         parsed.
+	 */
+	public List<ScoredObject<Tree>> getKBestParses() {
+		return kBestParses;
+	}
+
+	/**
+	 * @return how the parse ended.
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return true if the sentence was not parsed and the 1-best tree is a flat
+	 *         substitute.
+	 */
+	public boolean isFallback() {
+		return status != Status.PARSED;
+	}
+
+}
@@ -0,0 +1,124 @@
+/**
+ *
+ */
+package src.preprocessing;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.ling.TaggedWord;
+import edu.stanford.nlp.parser.lexparser.LexicalizedParserQuery;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.util.ScoredObject;
+import src.features.KBestParseBasedFeatures;
+import src.features.ParseTreeBasedFeatures;
+
+/**
+ * Compares untagged parsing (the default) with tag constrained parsing (see
+ * PreprocessText.setTagConstrainedParsing()) on the OSE corpus: parse time,
+ * how many 1-best trees change, and how far each parse based feature drifts.
+ * Every line of the input file is one text; "****" separator lines are
+ * skipped.
+ *
+ * @author svajjala
+ */
+public class TagConstrainedParsingBenchmark {
+
+	/**
+	 * @param args : args[0] the input file (defaults to the OSE corpus), args[1]
+	 *             the maximum number of texts (defaults to 500).
+	 */
+	public static void main(String[] args) throws Exception {
+		String inputPath = args.length > 0 ? args[0]
+				: "corpus/OSE-SentenceAlignedCorpus-ThreeLevel-2013toMid2015-FINAL.txt";
+		int maxTexts = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+		PreprocessText preprocess = new PreprocessText(1);
+		LexicalizedParserQuery lpq = PreprocessText.getParser().lexicalizedParserQuery();
+		ParseTreeBasedFeatures parse = new ParseTreeBasedFeatures();
+		KBestParseBasedFeatures kBestParse = new KBestParseBasedFeatures();
+
+		int numTexts = 0;
+		int numSentences = 0;
+		int numChangedTrees = 0;
+		long tagTime = 0;
+		long untaggedTime = 0;
+		long taggedTime = 0;
+		TreeMap<String, Double> drift = new TreeMap<String, Double>();
+		TreeMap<String, Double> maxDrift = new TreeMap<String, Double>();
+
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(inputPath), "UTF8"));
+		String dummy;
+		while ((dummy = br.readLine()) != null && numTexts < maxTexts) {
+			if (dummy.contains("****") || dummy.trim().isEmpty()) {
+				continue;
+			}
+			numTexts++;
+			List<List<HasWord>> sentences = preprocess.tokenize(dummy);
+			long start = System.nanoTime();
+			List<List<TaggedWord>> taggedSentences = preprocess.tag(sentences);
+			tagTime += System.nanoTime() - start;
+
+			List<Tree> untaggedTrees = new ArrayList<Tree>();
+			List<List<ScoredObject<Tree>>> untaggedKBest = new ArrayList<List<ScoredObject<Tree>>>();
+			List<Tree> taggedTrees = new ArrayList<Tree>();
+			List<List<ScoredObject<Tree>>> taggedKBest = new ArrayList<List<ScoredObject<Tree>>>();
+			for (int i = 0; i < sentences.size(); i++) {
+				numSentences++;
+				start = System.nanoTime();
+				SentenceParse untagged = PreprocessText.parseSentence(lpq, sentences.get(i));
+				untaggedTime += System.nanoTime() - start;
+
+				start = System.nanoTime();
+				SentenceParse tagged = PreprocessText.parseSentence(lpq, taggedSentences.get(i));
+				taggedTime += System.nanoTime() - start;
+
+				if (!untagged.getBestParse().equals(tagged.getBestParse())) {
+					numChangedTrees++;
+				}
+				untaggedTrees.add(untagged.getBestParse());
+				untaggedTrees.add(untagged.getBestParse());
+				untaggedKBest.add(untagged.getKBestParses());
+				taggedTrees.add(tagged.getBestParse());
+				taggedTrees.add(tagged.getBestParse());
+				taggedKBest.add(tagged.getKBestParses());
+			}
+
+			addDrift(parse.getSyntacticComplexityFeatures(untaggedTrees),
+					parse.getSyntacticComplexityFeatures(taggedTrees), drift, maxDrift);
+			addDrift(kBestParse.getSyntacticComplexityFeatures(untaggedKBest),
+					kBestParse.getSyntacticComplexityFeatures(taggedKBest), drift, maxDrift);
+		}
+		br.close();
+
+		System.out.println("Texts: " + numTexts + ", sentences: " + numSentences);
+		System.out.println("Tagging: " + tagTime / 1000000 + " ms");
+		System.out.println("Untagged parsing: " + untaggedTime / 1000000 + " ms");
+		System.out.println("Tag constrained parsing: " + taggedTime / 1000000 + " ms ("
+				+ String.format("%.2f", (double) untaggedTime / Math.max(taggedTime, 1)) + "x)");
+		System.out.println("Sentences with a different 1-best tree: " + numChangedTrees);
+		System.out.println("Feature\tMeanAbsDiff\tMaxAbsDiff");
+		for (String s : drift.keySet()) {
+			System.out.println(s + "\t" + String.format("%.4f", drift.get(s) / numTexts) + "\t"
+					+ String.format("%.4f", maxDrift.get(s)));
+		}
+	}
+
+	private static void addDrift(TreeMap<String, Double> untagged, TreeMap<String, Double> tagged,
+			TreeMap<String, Double> drift, TreeMap<String, Double> maxDrift) {
+		for (String s : untagged.keySet()) {
+			double diff = Math.abs(untagged.get(s) - tagged.get(s));
+			if (Double.isNaN(diff)) {
+				continue;
+			}
+			drift.put(s, drift.getOrDefault(s, 0.0) + diff);
+			maxDrift.put(s, Math.max(maxDrift.getOrDefault(s, 0.0), diff));
+		}
+	}
+
+}
@@ -0,0 +1,187 @@
+/**
+ *
+ */
+package src.preprocessing;
+
+import java.util.HashMap;
+import java.util.List;
+
+import edu.stanford.nlp.ling.HasTag;
+import edu.stanford.nlp.ling.HasWord;
+
+/**
+ * The tokens of a document as ids of a Vocabulary: for every token its form,
+ * its lowercased form and (for tagged text) its tag, in text order, with the
+ * sentence boundaries. It is built once per document, so extractors do not
+ * split, lowercase or lemmatize the same tokens again. Lemmas are looked up in
+ * the vocabulary on first use.
+ *
+ * The ids are those of a scope of the shared vocabulary, made for the table
+ * (see Vocabulary.newScope()): words of the lexical resources have their
+ * shared ids, and other words ids that go away with the table.
+ *
+ * @author svajjala
+ */
+public class TokenTable {
+
+	private final Vocabulary vocabulary;
+	private final int[] forms;
+	private final int[] lowercase;
+	private final int[] tags;
+	private final int[] sentenceStarts;
+	// The lowercased forms numbered from 0, in order of appearance.
+	private final int[] lowercaseTypes;
+	private final int numLowercaseTypes;
+
+	private TokenTable(Vocabulary vocabulary, int[] forms, int[] tags, int[] sentenceStarts) {
+		this.vocabulary = vocabulary;
+		this.forms = forms;
+		this.tags = tags;
+		this.sentenceStarts = sentenceStarts;
+		lowercase = new int[forms.length];
+		lowercaseTypes = new int[forms.length];
+		HashMap<Integer, Integer> types = new HashMap<Integer, Integer>();
+		for (int i = 0; i < forms.length; i++) {
+			lowercase[i] = vocabulary.getLowercase(forms[i]);
+			Integer type = types.get(lowercase[i]);
+			if (type == null) {
+				type = types.size();
+				types.put(lowercase[i], type);
+			}
+			lowercaseTypes[i] = type;
+		}
+		numLowercaseTypes = types.size();
+	}
+
+	/**
+	 * @param sentences : tokenized sentences; tags are kept if every word has one
+	 * @return their table, on a scope of the shared vocabulary.
+	 */
+	public static TokenTable of(List<? extends List<? extends HasWord>> sentences) {
+		Vocabulary vocabulary = Vocabulary.getShared().newScope();
+		int numTokens = 0;
+		boolean tagged = true;
+		for (List<? extends HasWord> sentence : sentences) {
+			numTokens += sentence.size();
+			for (HasWord word : sentence) {
+				tagged = tagged && word instanceof HasTag && ((HasTag) word).tag() != null;
+			}
+		}
+		int[] forms = new int[numTokens];
+		int[] tags = tagged ? new int[numTokens] : null;
+		int[] sentenceStarts = new int[sentences.size() + 1];
+		int i = 0;
+		for (int s = 0; s < sentences.size(); s++) {
+			for (HasWord word : sentences.get(s)) {
+				forms[i] = vocabulary.getId(word.word());
+				if (tagged) {
+					tags[i] = vocabulary.getId(((HasTag) word).tag());
+				}
+				i++;
+			}
+			sentenceStarts[s + 1] = i;
+		}
+		return new TokenTable(vocabulary, forms, tags, sentenceStarts);
+	}
+
+	/**
+	 * @param tokenizedSentences : sentences as strings of space separated tokens
+	 *                           (see AnnotatedDocument.getTokenizedSentences())
+	 * @return their table, on a scope of the shared vocabulary, with the tokens
+	 *         String.split() gives.
+	 */
+	public static TokenTable ofTokenizedSentences(List<String> tokenizedSentences) {
+		Vocabulary vocabulary = Vocabulary.getShared().newScope();
+		String[][] words = new String[tokenizedSentences.size()][];
+		int numTokens = 0;
+		for (int s = 0; s < words.length; s++) {
+			words[s] = tokenizedSentences.get(s).split(" ");
+			numTokens += words[s].length;
+		}
+		int[] forms = new int[numTokens];
+		int[] sentenceStarts = new int[words.length + 1];
+		int i = 0;
+		for (int s = 0; s < words.length; s++) {
+			for (String word : words[s]) {
+				forms[i++] = vocabulary.getId(word);
+			}
+			sentenceStarts[s + 1] = i;
+		}
+		return new TokenTable(vocabulary, forms, null, sentenceStarts);
+	}
+
+	public Vocabulary getVocabulary() {
+		return vocabulary;
+	}
+
+	/**
+	 * @return the number of tokens.
+	 */
+	public int size() {
+		return forms.length;
+	}
+
+	public int getNumSentences() {
+		return sentenceStarts.length - 1;
+	}
+
+	/**
+	 * @return the index of the first token of a sentence.
+	 */
+	public int getSentenceStart(int sentence) {
+		return sentenceStarts[sentence];
+	}
+
+	/**
+	 * @return the index after the last token of a sentence.
+	 */
+	public int getSentenceEnd(int sentence) {
+		return sentenceStarts[sentence + 1];
+	}
+
+	/**
+	 * @return the id of a token.
+	 */
+	public int getForm(int token) {
+		return forms[token];
+	}
+
+	/**
+	 * @return the id of the lowercased token.
+	 */
+	public int getLowercase(int token) {
+		return lowercase[token];
+	}
+
+	public boolean hasTags() {
+		return tags != null;
+	}
+
+	/**
+	 * @return the id of the tag of a token.
+	 */
+	public int getTag(int token) {
+		return tags[token];
+	}
+
+	/**
+	 * @return the id of the lemma of the lowercased token with its tag, or
+	 *         Vocabulary.NO_LEMMA.
+	 */
+	public int getLemma(int token) {
+		return vocabulary.getLemma(lowercase[token], tags[token]);
+	}
+
+	/**
+	 * @return for every token, the number of its lowercased form within this
+	 *         table, from 0 to getNumLowercaseTypes() - 1. Shared; do not change.
+	 */
+	public int[] getLowercaseTypes() {
+		return lowercaseTypes;
+	}
+
+	public int getNumLowercaseTypes() {
+		return numLowercaseTypes;
+	}
+
+}
@@ -0,0 +1,186 @@
+/**
+ *
+ */
+package src.preprocessing;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives every distinct string (token, lowercased token, tag, lemma) an int id,
+ * so that feature extractors compare and look up ids instead of normalizing
+ * the same strings again and again. For each form it keeps the id of its
+ * lowercased form, and it caches the lemma of every (word, tag) pair it is
+ * asked for.
+ *
+ * Ids are never given back, so a vocabulary grows with the distinct strings it
+ * sees. The shared vocabulary therefore only holds the words of the lexical
+ * resources (whose rows are found by these ids) and whatever else is put in it
+ * directly; documents get a scope of it (newScope()): a vocabulary that knows
+ * every id of the shared one and gives strings it lacks ids of its own, from
+ * SCOPE_BASE on. Those are dropped with the document, so a long running
+ * service does not grow with the vocabulary of its requests. Lookups of known
+ * strings do not lock, so many threads can use one vocabulary at once.
+ *
+ * @author svajjala
+ */
+public class Vocabulary {
+
+	/** Lemma of a word that has none. */
+	public static final int NO_LEMMA = -1;
+
+	/**
+	 * First id a scope gives; ids below it are those of the shared vocabulary, so
+	 * arrays indexed by its ids need no bounds but their length.
+	 */
+	public static final int SCOPE_BASE = 1 << 30;
+
+	private static final Vocabulary shared = new Vocabulary();
+
+	// The vocabulary this is a scope of, or null.
+	private final Vocabulary base;
+	private final int firstId;
+	private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+	// Written under the lock, before the id is published in ids.
+	private volatile String[] forms = new String[1024];
+	private volatile int[] lowercase = new int[1024];
+	private int size = 0;
+
+	private final ConcurrentHashMap<Long, Integer> lemmas = new ConcurrentHashMap<Long, Integer>();
+	private volatile Lemmatizer lemmatizer;
+
+	public Vocabulary() {
+		this(null, 0);
+	}
+
+	private Vocabulary(Vocabulary base, int firstId) {
+		this.base = base;
+		this.firstId = firstId;
+	}
+
+	/**
+	 * Finds the lemma of a word.
+	 */
+	public interface Lemmatizer {
+		/**
+		 * @param word : a lowercased word
+		 * @param tag  : its POS tag
+		 * @return its lemma, or null if it has none.
+		 * @throws Exception if it has none
+		 */
+		String getLemma(String word, String tag) throws Exception;
+	}
+
+	/**
+	 * @return the vocabulary shared by all documents of the JVM.
+	 */
+	public static Vocabulary getShared() {
+		return shared;
+	}
+
+	/**
+	 * @return a new scope of this vocabulary, e.g. for one document. A string
+	 *         this vocabulary only gets while the scope is in use may have an id
+	 *         in both.
+	 */
+	public Vocabulary newScope() {
+		if (base != null) {
+			throw new IllegalStateException("A scope has no scopes");
+		}
+		return new Vocabulary(this, SCOPE_BASE);
+	}
+
+	/**
+	 * @param form : a string
+	 * @return its id, given to it now if it has none yet.
+	 */
+	public int getId(String form) {
+		Integer id = base != null ? base.ids.get(form) : null;
+		if (id == null) {
+			id = ids.get(form);
+		}
+		return id != null ? id : add(form);
+	}
+
+	private synchronized int add(String form) {
+		Integer known = ids.get(form);
+		if (known != null) {
+			return known;
+		}
+		String lower = form.toLowerCase();
+		int lowerId = lower.equals(form) ? -1 : getId(lower);
+		int index = size;
+		if (index == forms.length) {
+			forms = Arrays.copyOf(forms, 2 * index);
+			lowercase = Arrays.copyOf(lowercase, 2 * index);
+		}
+		int id = firstId + index;
+		forms[index] = form;
+		lowercase[index] = lowerId == -1 ? id : lowerId;
+		size++;
+		ids.put(form, id);
+		return id;
+	}
+
+	/**
+	 * @return the string of an id.
+	 */
+	public String getForm(int id) {
+		return id < firstId ? base.getForm(id) : forms[id - firstId];
+	}
+
+	/**
+	 * @return the id of the lowercased form of an id.
+	 */
+	public int getLowercase(int id) {
+		return id < firstId ? base.getLowercase(id) : lowercase[id - firstId];
+	}
+
+	/**
+	 * @return the number of ids this vocabulary gave (for a scope, not counting
+	 *         those of its base).
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Sets how lemmas are found, for this vocabulary and its scopes. Lemmas found
+	 * before are kept, so this should be set once, before the first getLemma().
+	 */
+	public void setLemmatizer(Lemmatizer lemmatizer) {
+		this.lemmatizer = lemmatizer;
+	}
+
+	/**
+	 * @param wordId : id of a lowercased word
+	 * @param tagId  : id of its POS tag
+	 * @return the id of its lemma, or NO_LEMMA. Found once per word and tag; a
+	 *         scope keeps the lemmas that are all ids of its base in the base, so
+	 *         other documents find them there.
+	 */
+	public int getLemma(int wordId, int tagId) {
+		Long key = ((long) wordId << 32) | tagId;
+		Integer lemma = lemmas.get(key);
+		if (lemma == null && base != null && wordId < firstId && tagId < firstId) {
+			lemma = base.lemmas.get(key);
+		}
+		if (lemma == null) {
+			Lemmatizer current = base != null ? base.lemmatizer : lemmatizer;
+			if (current == null) {
+				throw new IllegalStateException("No lemmatizer set");
+			}
+			String form;
+			try {
+				form = current.getLemma(getForm(wordId), getForm(tagId));
+			} catch (Exception e) {
+				form = null;
+			}
+			lemma = form == null ? NO_LEMMA : getId(form);
+			boolean inBase = base != null && wordId < firstId && tagId < firstId && lemma < firstId;
+			(inBase ? base.lemmas : lemmas).put(key, lemma);
+		}
+		return lemma;
+	}
+
+}
@@ -0,0 +1,120 @@
+/**
+ *
+ */
+package src.utils.genutils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author svajjala An in-memory memo table of bounded size that many threads
+ *         can use at once. It is split into segments by key hash, each a least
+ *         recently used map under its own lock, so threads rarely wait for each
+ *         other. When a segment is full, its least recently used entry is
+ *         dropped. Values must not be changed once they are put in.
+ */
+public class BoundedMemo<K, V> {
+
+	private static final int NUM_SEGMENTS = 16;
+
+	private final Segment<K, V>[] segments;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param maxEntries : how many entries are kept at most
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public BoundedMemo(int maxEntries) {
+		int perSegment = Math.max(1, maxEntries / NUM_SEGMENTS);
+		segments = new Segment[NUM_SEGMENTS];
+		for (int i = 0; i < NUM_SEGMENTS; i++) {
+			segments[i] = new Segment<K, V>(perSegment);
+		}
+	}
+
+	private Segment<K, V> segmentFor(Object key) {
+		int h = key.hashCode();
+		return segments[(h ^ (h >>> 16)) & (NUM_SEGMENTS - 1)];
+	}
+
+	/**
+	 * @param key : a key
+	 * @return its value, or null. Counts as a hit or a miss.
+	 */
+	public V get(K key) {
+		Segment<K, V> segment = segmentFor(key);
+		V value;
+		synchronized (segment) {
+			value = segment.get(key);
+		}
+		(value == null ? misses : hits).incrementAndGet();
+		return value;
+	}
+
+	/**
+	 * Stores a value, dropping the least recently used entry if needed.
+	 */
+	public void put(K key, V value) {
+		Segment<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			segment.put(key, value);
+		}
+	}
+
+	/**
+	 * @return the number of entries kept.
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return hits / lookups, or 0 before the first lookup.
+	 */
+	public double getHitRatio() {
+		long total = hits.get() + misses.get();
+		return total == 0 ? 0.0 : (double) hits.get() / total;
+	}
+
+	/**
+	 * @return hits, lookups, hit ratio and size, as a printable string.
+	 */
+	@Override
+	public String toString() {
+		long h = hits.get();
+		return h + "/" + (h + misses.get()) + " hits (" + String.format("%.1f", 100 * getHitRatio()) + "%), "
+				+ size() + " entries";
+	}
+
+	private static class Segment<K, V> extends LinkedHashMap<K, V> {
+		private static final long serialVersionUID = 1L;
+		private final int maxEntries;
+
+		Segment(int maxEntries) {
+			super(16, 0.75f, true);
+			this.maxEntries = maxEntries;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+			return size() > maxEntries;
+		}
+	}
+
+}
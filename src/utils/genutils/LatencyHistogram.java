@@ -0,0 +1,119 @@
+/**
+ *
+ */
+package src.utils.genutils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author svajjala A lock-free histogram of durations in nanoseconds, for
+ *         percentiles over millions of samples without keeping the samples.
+ *         Buckets are log-linear: 16 per power of two, so a percentile is off
+ *         by at most 1/16 of its value. Safe to record into from any number of
+ *         threads.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param nanos : a duration in nanoseconds; negative values count as 0.
+	 */
+	public void record(long nanos) {
+		nanos = Math.max(nanos, 0);
+		buckets.incrementAndGet(bucketOf(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		max.accumulateAndGet(nanos, Math::max);
+	}
+
+	private static int bucketOf(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) nanos;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @return the largest value that falls in the bucket.
+	 */
+	private static long upperBoundOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lower + (1L << shift) - 1;
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return total of all durations, in nanoseconds.
+	 */
+	public long getTotal() {
+		return total.get();
+	}
+
+	/**
+	 * @return the largest duration, in nanoseconds.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return the mean duration, in nanoseconds.
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) total.get() / n;
+	}
+
+	/**
+	 * @param percentile : between 0 and 100
+	 * @return the duration below which this percentage of samples fall, in
+	 *         nanoseconds.
+	 */
+	public long getPercentile(double percentile) {
+		long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+		long seen = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank) {
+				return Math.min(upperBoundOf(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Count, p50, p95, p99 and max in milliseconds.
+	 */
+	@Override
+	public String toString() {
+		return "n=" + getCount() + " p50=" + toMillis(getPercentile(50)) + "ms p95=" + toMillis(getPercentile(95))
+				+ "ms p99=" + toMillis(getPercentile(99)) + "ms max=" + toMillis(getMax()) + "ms";
+	}
+
+	public static String toMillis(long nanos) {
+		return String.format("%.2f", nanos / 1e6);
+	}
+
+}
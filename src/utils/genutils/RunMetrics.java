@@ -0,0 +1,145 @@
+/**
+ *
+ */
+package src.utils.genutils;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.simple.JSONObject;
+
+/**
+ * @author svajjala Telemetry for a feature extraction run: a latency histogram
+ *         per step (see the constants for the standard ones; extractors are
+ *         recorded as "extract:" + class name) and document and sentence
+ *         throughput. One instance is shared by all the threads of a run.
+ */
+public class RunMetrics {
+
+	/** Sentence splitting and tokenizing, per document. */
+	public static final String TOKENIZE = "tokenize";
+	/** POS tagging, per document. */
+	public static final String TAG = "tag";
+	/** Parsing a sentence up to its 1-best tree, per parsed sentence. */
+	public static final String PARSE = "parse";
+	/** Reading the k-best parses off the chart, per parsed sentence. */
+	public static final String KBEST = "kbest";
+	/** All preprocessing of a document, per document. */
+	public static final String PREPROCESS = "preprocess";
+	/** All feature extraction of a document, per document. */
+	public static final String EXTRACT = "extract";
+	/** Prefix of the per extractor histograms. */
+	public static final String EXTRACTOR_PREFIX = "extract:";
+	/** Waiting in a service queue for a worker, per document. */
+	public static final String QUEUE = "queue";
+	/** A whole service request, from receiving it to answering it. */
+	public static final String REQUEST = "request";
+
+	private final long startNanos = System.nanoTime();
+	private final ConcurrentSkipListMap<String, LatencyHistogram> latencies = new ConcurrentSkipListMap<String, LatencyHistogram>();
+	private final AtomicLong numDocs = new AtomicLong();
+	private final AtomicLong numSentences = new AtomicLong();
+
+	/**
+	 * @param step : name of the step
+	 * @return the histogram of the step, created on first use.
+	 */
+	public LatencyHistogram getLatency(String step) {
+		return latencies.computeIfAbsent(step, s -> new LatencyHistogram());
+	}
+
+	/**
+	 * Records how long a step took, from startNanos (a System.nanoTime() value)
+	 * until now.
+	 */
+	public void recordSince(String step, long startNanos) {
+		getLatency(step).record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Counts a finished document.
+	 */
+	public void addDocument() {
+		numDocs.incrementAndGet();
+	}
+
+	/**
+	 * Counts sentences seen.
+	 */
+	public void addSentences(int n) {
+		numSentences.addAndGet(n);
+	}
+
+	private double getElapsedSeconds() {
+		return Math.max((System.nanoTime() - startNanos) / 1e9, 1e-9);
+	}
+
+	/**
+	 * @return throughput since the start of the run, and one line per step.
+	 */
+	public String getSummary() {
+		double seconds = getElapsedSeconds();
+		StringBuilder summary = new StringBuilder();
+		summary.append("Docs: ").append(numDocs.get()).append(" (")
+				.append(String.format("%.2f", numDocs.get() / seconds)).append(" docs/sec), sentences: ")
+				.append(numSentences.get()).append(" (").append(String.format("%.2f", numSentences.get() / seconds))
+				.append(" sentences/sec), elapsed: ").append(String.format("%.1f", seconds)).append(" s");
+		for (Map.Entry<String, LatencyHistogram> latency : latencies.entrySet()) {
+			summary.append("\n  ").append(latency.getKey()).append(": ").append(latency.getValue());
+		}
+		return summary.toString();
+	}
+
+	/**
+	 * @return the metrics as a JSON object: totals, throughput, and count, mean,
+	 *         p50, p95, p99 and max (in milliseconds) per step.
+	 */
+	@SuppressWarnings("unchecked")
+	public JSONObject getReport() {
+		double seconds = getElapsedSeconds();
+		JSONObject report = new JSONObject();
+		report.put("elapsed_seconds", seconds);
+		report.put("documents", numDocs.get());
+		report.put("sentences", numSentences.get());
+		report.put("docs_per_second", numDocs.get() / seconds);
+		report.put("sentences_per_second", numSentences.get() / seconds);
+		JSONObject steps = new JSONObject();
+		for (Map.Entry<String, LatencyHistogram> latency : latencies.entrySet()) {
+			LatencyHistogram histogram = latency.getValue();
+			JSONObject step = new JSONObject();
+			step.put("count", histogram.getCount());
+			step.put("total_ms", histogram.getTotal() / 1e6);
+			step.put("mean_ms", histogram.getMean() / 1e6);
+			step.put("p50_ms", histogram.getPercentile(50) / 1e6);
+			step.put("p95_ms", histogram.getPercentile(95) / 1e6);
+			step.put("p99_ms", histogram.getPercentile(99) / 1e6);
+			step.put("max_ms", histogram.getMax() / 1e6);
+			steps.put(latency.getKey(), step);
+		}
+		report.put("latencies", steps);
+		return report;
+	}
+
+	/**
+	 * Writes getReport() to a file.
+	 *
+	 * @param reportpath : the file to write
+	 * @throws IOException
+	 */
+	public void writeReport(String reportpath) throws IOException {
+		JSONObject report = getReport();
+		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(reportpath), "UTF8"));
+		try {
+			bw.write(report.toJSONString());
+			bw.newLine();
+		} finally {
+			bw.close();
+		}
+	}
+
+}